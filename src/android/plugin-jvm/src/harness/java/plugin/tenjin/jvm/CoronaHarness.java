@@ -0,0 +1,258 @@
+//
+// CoronaHarness.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin.jvm;
+
+import android.os.Looper;
+
+import com.ansca.corona.CoronaActivity;
+import com.ansca.corona.CoronaEnvironment;
+import com.ansca.corona.CoronaRuntime;
+import com.ansca.corona.CoronaRuntimeListener;
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import plugin.tenjin.LuaLoader;
+
+/**
+ * Runs the plugin in a fake Corona runtime on a plain JVM.
+ * <p>
+ * Each harness is one Corona activity: a Lua state and runtime that required "plugin.tenjin", as
+ * global "tenjin". Like on a device, the LuaLoader is created once per process and sees the runtime
+ * events of every activity.
+ * <p>
+ * The thread that starts a harness is its Lua thread. If the main looper was not prepared by someone
+ * else (who then runs it with Looper.loop()), the harness prepares it and the Lua thread also acts as
+ * the main thread: {@link #runFrame()} drains the main looper before running the runtime tasks.
+ */
+public class CoronaHarness {
+    private static final String MODULE_NAME = "plugin.tenjin";
+    private static final String GLOBAL_NAME = "tenjin";
+    private static final int MAX_FRAMES = 10000;
+
+    private static LuaLoader loader = null;
+    private static boolean drainsMainLooper = false;
+    private static File defaultFilesDir = null;
+
+    private final LuaState L;
+    private final CoronaRuntime runtime;
+
+    private CoronaHarness(LuaState L, CoronaRuntime runtime) {
+        this.L = L;
+        this.runtime = runtime;
+    }
+
+    // start an activity whose files go to a directory shared by the harnesses of this process
+    public static CoronaHarness start() {
+        return start(getDefaultFilesDir());
+    }
+
+    // start an activity whose files go to the given directory
+    public static synchronized CoronaHarness start(File filesDir) {
+        if (Looper.getMainLooper() == null) {
+            Looper.prepareMainLooper();
+            drainsMainLooper = true;
+        }
+
+        CoronaActivity activity = new CoronaActivity(filesDir);
+        CoronaEnvironment.setCoronaActivity(activity);
+        CoronaEnvironment.setApplicationContext(activity);
+
+        LuaState L = new LuaState();
+        CoronaRuntime runtime = new CoronaRuntime(L);
+        CoronaHarness harness = new CoronaHarness(L, runtime);
+
+        // the listener is added by the LuaLoader constructor, so the first activity gets no onLoaded()
+        if (loader == null) {
+            loader = new LuaLoader();
+        } else {
+            for (CoronaRuntimeListener listener : CoronaEnvironment.getRuntimeListeners()) {
+                listener.onLoaded(runtime);
+            }
+        }
+
+        // require("plugin.tenjin")
+        L.pushJavaFunction(loader);
+        L.pushString(MODULE_NAME);
+        L.call(1, 1);
+        L.setGlobal(GLOBAL_NAME);
+
+        for (CoronaRuntimeListener listener : CoronaEnvironment.getRuntimeListeners()) {
+            listener.onStarted(runtime);
+        }
+        return harness;
+    }
+
+    public LuaState getLuaState() {
+        return L;
+    }
+
+    public CoronaRuntime getRuntime() {
+        return runtime;
+    }
+
+    // -------------------------------------------------------
+    // Lua calls
+    // -------------------------------------------------------
+
+    // push tenjin[name]
+    public void pushFunction(String name) {
+        L.getGlobal(GLOBAL_NAME);
+        L.getField(-1, name);
+        L.remove(-2);
+    }
+
+    // call tenjin[name](args...), returns its results converted by toJava()
+    public List<Object> call(String name, Object... args) {
+        int base = L.getTop();
+        pushFunction(name);
+        for (Object arg : args) {
+            push(arg);
+        }
+        L.call(args.length, LuaState.MULTRET);
+
+        List<Object> results = new ArrayList<>();
+        for (int index = base + 1; index <= L.getTop(); index++) {
+            results.add(toJava(L, index));
+        }
+        L.setTop(base);
+        return results;
+    }
+
+    // tenjin.init(listener, options), then run the frames that deliver the "init" event
+    public void init(JavaFunction listener, Map<String, ?> options) {
+        call("init", listener, options);
+        runUntilIdle();
+    }
+
+    // push a Java value: null, String, Boolean, Number, JavaFunction, List (array) or Map (string or integer keys)
+    public void push(Object value) {
+        if (value == null) {
+            L.pushNil();
+        } else if (value instanceof String) {
+            L.pushString((String) value);
+        } else if (value instanceof Boolean) {
+            L.pushBoolean((Boolean) value);
+        } else if (value instanceof Number) {
+            L.pushNumber(((Number) value).doubleValue());
+        } else if (value instanceof JavaFunction) {
+            L.pushJavaFunction((JavaFunction) value);
+        } else if (value instanceof List) {
+            L.newTable();
+            int i = 1;
+            for (Object item : (List<?>) value) {
+                push(item);
+                L.rawSet(-2, i++);
+            }
+        } else if (value instanceof Map) {
+            L.newTable();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                push(entry.getValue());
+                if (entry.getKey() instanceof Number) {
+                    L.rawSet(-2, ((Number) entry.getKey()).intValue());
+                } else {
+                    L.setField(-2, entry.getKey().toString());
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("no Lua value for " + value.getClass().getName());
+        }
+    }
+
+    // Lua value at the given (absolute) index: null, String, Boolean, Double, JavaFunction or Map (tables)
+    public static Object toJava(LuaState L, int index) {
+        LuaType type = L.type(index);
+        if (type == null) {
+            return null;
+        }
+
+        switch (type) {
+            case BOOLEAN:
+                return L.toBoolean(index);
+            case NUMBER:
+                return L.toNumber(index);
+            case STRING:
+                return L.toString(index);
+            case FUNCTION:
+                return L.toJavaFunction(index);
+            case TABLE:
+                Map<Object, Object> table = new HashMap<>();
+                for (L.pushNil(); L.next(index); L.pop(1)) {
+                    table.put(toJava(L, L.getTop() - 1), toJava(L, L.getTop()));
+                }
+                return table;
+            default:
+                return null;
+        }
+    }
+
+    // -------------------------------------------------------
+    // frames and lifecycle
+    // -------------------------------------------------------
+
+    // run what the main looper has due (if the harness drives it), then the runtime tasks; returns the work done
+    public int runFrame() {
+        int count = drainsMainLooper() ? Looper.getMainLooper().idle() : 0;
+        return count + runtime.runTasks();
+    }
+
+    // run frames until one does nothing (work on the SDK worker thread is not waited for)
+    public void runUntilIdle() {
+        for (int frame = 0; frame < MAX_FRAMES; frame++) {
+            if (runFrame() == 0) {
+                return;
+            }
+        }
+        throw new IllegalStateException("still busy after " + MAX_FRAMES + " frames");
+    }
+
+    public void suspend() {
+        for (CoronaRuntimeListener listener : CoronaEnvironment.getRuntimeListeners()) {
+            listener.onSuspended(runtime);
+        }
+    }
+
+    public void resume() {
+        for (CoronaRuntimeListener listener : CoronaEnvironment.getRuntimeListeners()) {
+            listener.onResumed(runtime);
+        }
+    }
+
+    // the activity is destroyed: onExiting(), then the runtime and activity go away
+    public void exit() {
+        for (CoronaRuntimeListener listener : CoronaEnvironment.getRuntimeListeners()) {
+            listener.onExiting(runtime);
+        }
+        runtime.dispose();
+        CoronaEnvironment.setCoronaActivity(null);
+    }
+
+    private static synchronized boolean drainsMainLooper() {
+        return drainsMainLooper;
+    }
+
+    private static synchronized File getDefaultFilesDir() {
+        if (defaultFilesDir == null) {
+            try {
+                defaultFilesDir = Files.createTempDirectory("tenjin-plugin").toFile();
+            } catch (IOException ex) {
+                throw new IllegalStateException("no files directory", ex);
+            }
+            defaultFilesDir.deleteOnExit();
+        }
+        return defaultFilesDir;
+    }
+}
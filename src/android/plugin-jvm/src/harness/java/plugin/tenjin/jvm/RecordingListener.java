@@ -0,0 +1,48 @@
+//
+// RecordingListener.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin.jvm;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lua listener keeping a copy of every event table it is called with.
+ */
+public class RecordingListener implements JavaFunction {
+    private final List<Map<Object, Object>> events = new ArrayList<>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int invoke(LuaState L) {
+        events.add((Map<Object, Object>) CoronaHarness.toJava(L, 1));
+        return 0;
+    }
+
+    public List<Map<Object, Object>> getEvents() {
+        return events;
+    }
+
+    // events received with the given phase
+    public List<Map<Object, Object>> getEvents(String phase) {
+        List<Map<Object, Object>> matching = new ArrayList<>();
+        for (Map<Object, Object> event : events) {
+            if (phase.equals(event.get("phase"))) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+
+    public void clear() {
+        events.clear();
+    }
+}
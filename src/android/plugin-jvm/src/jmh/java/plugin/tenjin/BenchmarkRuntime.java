@@ -0,0 +1,101 @@
+//
+// BenchmarkRuntime.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import plugin.tenjin.jvm.CoronaHarness;
+
+/**
+ * Initialized plugin in a fake Corona runtime, the base state of the benchmarks (one per fork).
+ * <p>
+ * The benchmark thread is both the Lua thread and the main thread, and Lua tables are recycled
+ * (they live on the Lua heap on a device), so the gc profiler only sees the plugin's allocations.
+ * Lua arguments are built once and kept in the registry.
+ */
+@State(Scope.Thread)
+public abstract class BenchmarkRuntime {
+    CoronaHarness harness;
+    LuaState L;
+    long callbackCount = 0;
+
+    // counts the analyticsRequest events, without keeping them
+    final JavaFunction listener = new JavaFunction() {
+        @Override
+        public int invoke(LuaState L) {
+            callbackCount++;
+            return 0;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        harness = CoronaHarness.start();
+        L = harness.getLuaState();
+        L.setTableRecycling(true);
+
+        Map<String, Object> options = new HashMap<>();
+        options.put("apiKey", "benchmark");
+        harness.init(listener, options);
+        if (callbackCount != 1) {
+            throw new IllegalStateException("init event not delivered");
+        }
+
+        prepare();
+    }
+
+    // build the arguments of the benchmarks, once the plugin is initialized
+    protected abstract void prepare();
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        harness.exit();
+    }
+
+    // keep a Lua value (see CoronaHarness.push()) in the registry, returns its ref
+    int ref(Object value) {
+        harness.push(value);
+        return L.ref(LuaState.REGISTRYINDEX);
+    }
+
+    // keep tenjin[name] in the registry, returns its ref
+    int functionRef(String name) {
+        harness.pushFunction(name);
+        return L.ref(LuaState.REGISTRYINDEX);
+    }
+
+    void push(int ref) {
+        L.rawGet(LuaState.REGISTRYINDEX, ref);
+    }
+
+    // call the function with the given refs as arguments, then run the frame that sends the events and delivers the callbacks
+    int call(int function, int arg1) {
+        push(function);
+        push(arg1);
+        L.call(1, 0);
+        return harness.runFrame();
+    }
+
+    int call(int function, int arg1, int arg2) {
+        push(function);
+        push(arg1);
+        push(arg2);
+        L.call(2, 0);
+        return harness.runFrame();
+    }
+}
@@ -0,0 +1,85 @@
+//
+// DispatchBenchmark.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.ansca.corona.CoronaLua;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lua event construction: a pooled LuaEvent record turned into the analyticsRequest event table
+ * and passed to the listener, as done on the Lua thread for every callback.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark extends BenchmarkRuntime {
+    private int listenerRef;
+    private final Map<String, String> deepLinkData = new HashMap<>();
+
+    @Override
+    protected void prepare() {
+        L.pushJavaFunction(listener);
+        listenerRef = CoronaLua.newRef(L, -1);
+        L.pop(1);
+
+        deepLinkData.put("ad_network", "organic");
+        deepLinkData.put("advertising_id", "00000000-0000-0000-0000-000000000000");
+        deepLinkData.put("campaign_id", "1234");
+        deepLinkData.put("deferred_deeplink_url", "example://level/7");
+    }
+
+    // "recorded" event of a logEvent() call
+    @Benchmark
+    public long recordedEvent() {
+        LuaEvent event = LuaEvent.obtain();
+        event.phase = "recorded";
+        event.type = "standard";
+        event.listener = listenerRef;
+        LuaLoader.deliverLuaEvent(L, event);
+        event.recycle();
+        return callbackCount;
+    }
+
+    // "recorded" event of a logEvents() call, with its count field
+    @Benchmark
+    public long bulkRecordedEvent() {
+        LuaEvent event = LuaEvent.obtain();
+        event.phase = "recorded";
+        event.type = "standard";
+        event.countKey = "count";
+        event.count = 10;
+        event.listener = listenerRef;
+        LuaLoader.deliverLuaEvent(L, event);
+        event.recycle();
+        return callbackCount;
+    }
+
+    // getDeepLink() answer, the free-form payload is copied into the event table
+    @Benchmark
+    public long deepLinkEvent() {
+        LuaEvent event = LuaEvent.obtain();
+        event.data = deepLinkData;
+        event.listener = listenerRef;
+        LuaLoader.deliverLuaEvent(L, event);
+        event.recycle();
+        return callbackCount;
+    }
+}
@@ -0,0 +1,66 @@
+//
+// LogEventBenchmark.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tenjin.logEvent(event [, value]): argument checks, value truncation and formatting, through the
+ * SDK call and the "recorded" callback.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogEventBenchmark extends BenchmarkRuntime {
+    private int logEvent;
+    private int eventName;
+    private int eventHandle;
+    private int integralValue;
+    private int fractionalValue;
+
+    @Override
+    protected void prepare() {
+        logEvent = functionRef("logEvent");
+        eventName = ref("level_complete");
+        eventHandle = ref(harness.call("registerEvent", "level_complete").get(0));
+        integralValue = ref(42);
+        fractionalValue = ref(42.5);
+    }
+
+    @Benchmark
+    public int logEvent() {
+        return call(logEvent, eventName);
+    }
+
+    // name passed as a tenjin.registerEvent() handle
+    @Benchmark
+    public int logEventHandle() {
+        return call(logEvent, eventHandle);
+    }
+
+    @Benchmark
+    public int logEventWithValue() {
+        return call(logEvent, eventName, integralValue);
+    }
+
+    // value truncated to an integer for the SDK (warning message)
+    @Benchmark
+    public int logEventTruncatedValue() {
+        return call(logEvent, eventName, fractionalValue);
+    }
+}
@@ -0,0 +1,62 @@
+//
+// LogMsgBenchmark.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Console messages of rejected calls: logMsg() builds the message from the function signature and
+ * counts the validation failure. Measured through tenjin.logEvent() calls that fail their checks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogMsgBenchmark extends BenchmarkRuntime {
+    private int logEvent;
+    private int badName;
+    private int eventName;
+    private int badValue;
+
+    @Override
+    protected void prepare() {
+        logEvent = functionRef("logEvent");
+        badName = ref(true);
+        eventName = ref("level_complete");
+        badValue = ref("ten");
+    }
+
+    // "eventName (string or event handle) expected, got boolean"
+    @Benchmark
+    public int invalidName() {
+        return call(logEvent, badName);
+    }
+
+    // "eventValue (number) expected, got string"
+    @Benchmark
+    public int invalidValue() {
+        return call(logEvent, eventName, badValue);
+    }
+
+    // "Expected 1 or 2 arguments, got 0"
+    @Benchmark
+    public int missingArguments() {
+        push(logEvent);
+        L.call(0, 0);
+        return harness.runFrame();
+    }
+}
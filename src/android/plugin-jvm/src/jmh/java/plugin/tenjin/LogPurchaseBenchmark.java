@@ -0,0 +1,71 @@
+//
+// LogPurchaseBenchmark.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tenjin.logPurchase(productData): productData table parsing and validation, through the SDK call
+ * and the "recorded" callback. Purchases with a receipt are checked on the worker thread and are
+ * not covered here.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogPurchaseBenchmark extends BenchmarkRuntime {
+    private int logPurchase;
+    private int productData;
+    private int lowerCaseCurrency;
+    private int invalidProductData;
+
+    @Override
+    protected void prepare() {
+        logPurchase = functionRef("logPurchase");
+        productData = ref(product("USD", 1.99));
+        lowerCaseCurrency = ref(product("usd", 1.99));
+        invalidProductData = ref(product("USD", "1.99"));
+    }
+
+    private static Map<String, Object> product(String currencyCode, Object unitPrice) {
+        Map<String, Object> product = new HashMap<>();
+        product.put("productId", "com.example.coins.100");
+        product.put("currencyCode", currencyCode);
+        product.put("quantity", 1);
+        product.put("unitPrice", unitPrice);
+        return product;
+    }
+
+    @Benchmark
+    public int logPurchase() {
+        return call(logPurchase, productData);
+    }
+
+    // currency code normalized to upper case
+    @Benchmark
+    public int logPurchaseLowerCaseCurrency() {
+        return call(logPurchase, lowerCaseCurrency);
+    }
+
+    // rejected while parsing (error message)
+    @Benchmark
+    public int logPurchaseInvalid() {
+        return call(logPurchase, invalidProductData);
+    }
+}
@@ -0,0 +1,540 @@
+//
+// LoadSimulator.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin.jvm;
+
+import android.os.Looper;
+
+import com.ansca.corona.CoronaRuntime;
+import com.ansca.corona.CoronaRuntimeTask;
+import com.ansca.corona.CoronaRuntimeTaskDispatcher;
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+import com.tenjin.android.TenjinSDK;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load test of the plugin in the fake Corona runtime, with the threads of a device:
+ * <ul>
+ * <li>a main thread running the main looper (UI work and SDK calls in the "ui" execution mode)</li>
+ * <li>the Lua thread running frames, the runtime lifecycle events and the Lua calls</li>
+ * <li>producer threads sending logEvent(), logPurchase() and getDeepLink() calls to the runtime at a
+ * fixed rate, like native code dispatching Lua work from its own threads</li>
+ * </ul>
+ * Every call carries a sequence number (as the event value, the purchase unit price or in the deep
+ * link listener), so the SDK fake and the listeners can tell which calls arrived, twice or never.
+ * Latencies run from the time a call was due to be sent, so a stalled runtime shows up in them.
+ * <p>
+ * Usage: {@code gradle -p src/android/plugin-jvm simulate -PsimArgs='rate=50000 producers=4'}, see
+ * {@link SimulatorConfig} for the settings. Exits with status 1 if a Lua call or a thread failed.
+ */
+public class LoadSimulator {
+    private static final String EVENT_NAME = "sim_event";
+    private static final String PRODUCT_ID = "sim_product";
+
+    // call kinds
+    private static final int KIND_EVENT = 0;
+    private static final int KIND_PURCHASE = 1;
+    private static final int KIND_DEEP_LINK = 2;
+    private static final String[] KIND_NAMES = {"logEvent", "logPurchase", "getDeepLink"};
+    private static final String[] LATENCY_NAMES = {"logEvent -> SDK", "logPurchase -> SDK", "getDeepLink -> listener"};
+
+    // sequence numbers index rings of this size, a call delivered after that many newer calls is miscounted
+    private static final int MAX_SLOTS = 1 << 22;
+
+    // time without progress after which the SDK is considered to have caught up
+    private static final long SETTLE_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final SimulatorConfig config;
+    private final File filesDir;
+
+    // per sequence slot: when the call was due, how many times it arrived
+    private final int slotMask;
+    private final long[] dueAt;
+    private final AtomicIntegerArray arrivals;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    // counters per call kind
+    private final AtomicLong[] sent = counters();
+    private final long[] called = new long[KIND_NAMES.length];  // Lua thread only
+    private final AtomicLong[] arrived = counters();
+    private final AtomicLong[] duplicates = counters();
+    private final LatencyRecorder[] latencies = {new LatencyRecorder(), new LatencyRecorder(), new LatencyRecorder()};
+
+    // analyticsRequest events by phase, queue depth samples {count, sum, max} (Lua thread only)
+    private final Map<String, Long> callbacks = new TreeMap<>();
+    private final Map<String, long[]> depths = new LinkedHashMap<>();
+
+    private long luaErrors = 0;
+    private final AtomicLong threadErrors = new AtomicLong();
+    private int suspendCount = 0;
+    private int restartCount = 0;
+
+    private CoronaHarness harness;
+    private volatile CoronaRuntimeTaskDispatcher dispatcher;
+    private volatile boolean producing = true;
+
+    private final JavaFunction listener = new JavaFunction() {
+        @Override
+        public int invoke(LuaState L) {
+            L.getField(1, "phase");
+            String phase = L.toString(-1);
+            L.getField(1, "count");
+            long count = (L.type(-1) == LuaType.NUMBER) ? L.toInteger(-1) : 1;
+            L.pop(2);
+
+            Long previous = callbacks.get(phase);
+            callbacks.put(phase, (previous != null ? previous : 0) + count);
+            return 0;
+        }
+    };
+
+    private final TenjinSDK.Observer observer = new TenjinSDK.Observer() {
+        @Override
+        public void onEvent(String name, int value, boolean hasValue) {
+            if (hasValue && EVENT_NAME.equals(name)) {
+                arrived(KIND_EVENT, value);
+            }
+        }
+
+        @Override
+        public void onTransaction(String productId, String currencyCode, int quantity, double unitPrice, String receipt, String signature) {
+            if (PRODUCT_ID.equals(productId)) {
+                arrived(KIND_PURCHASE, (int) unitPrice);
+            }
+        }
+    };
+
+    LoadSimulator(SimulatorConfig config, File filesDir) {
+        this.config = config;
+        this.filesDir = filesDir;
+
+        long expected = (long) config.rate * (config.warmup + config.duration) / 1000 + config.rate;
+        int slots = Integer.highestOneBit((int) Math.min(MAX_SLOTS, Math.max(1024, expected)) * 2 - 1);
+        slotMask = slots - 1;
+        dueAt = new long[slots];
+        arrivals = new AtomicIntegerArray(slots);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatorConfig config = SimulatorConfig.parse(args);
+        File filesDir = Files.createTempDirectory("tenjin-simulator").toFile();
+        int status;
+        try {
+            status = new LoadSimulator(config, filesDir).run();
+        } finally {
+            delete(filesDir);
+        }
+        System.exit(status);
+    }
+
+    // -------------------------------------------------------
+    // run
+    // -------------------------------------------------------
+
+    int run() throws InterruptedException {
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                threadErrors.incrementAndGet();
+                System.err.println("uncaught exception on " + thread.getName());
+                ex.printStackTrace();
+            }
+        });
+
+        System.out.println("Simulating " + config);
+
+        Thread mainThread = startMainThread();
+        TenjinSDK.setObserver(observer);
+        startRuntime();
+
+        List<Producer> producers = new ArrayList<>();
+        for (int i = 0; i < config.producers; i++) {
+            Producer producer = new Producer(i);
+            producers.add(producer);
+            producer.start();
+        }
+
+        long start = System.nanoTime();
+        long measureStart = start + millis(config.warmup);
+        long end = measureStart + millis(config.duration);
+        long nextSample = start;
+        long nextSuspend = start + millis(config.suspendInterval);
+        long nextRestart = start + millis(config.restartInterval);
+        long resumeAt = 0;
+        boolean suspended = false;
+        long heapBaseline = -1;
+        long frameCalls = Math.max(1, config.rate * config.frameInterval / 1000);
+
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if ((heapBaseline < 0) && (now >= measureStart)) {
+                heapBaseline = usedHeap();
+            }
+
+            if (suspended) {
+                if (now >= resumeAt) {
+                    harness.resume();
+                    suspended = false;
+                }
+            } else if ((config.suspendInterval > 0) && (now >= nextSuspend)) {
+                harness.suspend();
+                suspended = true;
+                suspendCount++;
+                resumeAt = now + millis(config.suspendTime);
+                nextSuspend = now + millis(config.suspendInterval);
+            }
+
+            if (!suspended && (config.restartInterval > 0) && (now >= nextRestart)) {
+                restart();
+                nextRestart = now + millis(config.restartInterval);
+            }
+
+            // a suspended runtime runs no frames, the tasks sent meanwhile pile up
+            if (!suspended) {
+                harness.runFrame();
+
+                // measure once the backlog of the collections above is gone
+                if ((heapBaseline >= 0) && (measureFrom == Long.MAX_VALUE) && (harness.getRuntime().getTaskCount() <= frameCalls)) {
+                    depths.clear();
+                    measureFrom = System.nanoTime();
+                }
+            }
+
+            if (now >= nextSample) {
+                sample(suspended);
+                nextSample += millis(config.sampleInterval);
+            }
+
+            waitUntil(now + millis(config.frameInterval));
+        }
+
+        if (suspended) {
+            harness.resume();
+        }
+
+        producing = false;
+        for (Producer producer : producers) {
+            producer.join();
+        }
+        drain();
+
+        harness.exit();
+        Looper.getMainLooper().quit();
+        mainThread.join();
+        long heapEnd = usedHeap();
+
+        report(Math.max(0, heapBaseline), heapEnd);
+        return ((luaErrors > 0) || (threadErrors.get() > 0)) ? 1 : 0;
+    }
+
+    // the main thread, running the main looper the SDK and UI work is posted to
+    private static Thread startMainThread() throws InterruptedException {
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread("main") {
+            @Override
+            public void run() {
+                Looper.prepareMainLooper();
+                prepared.countDown();
+                Looper.loop();
+            }
+        };
+        thread.start();
+        prepared.await();
+        return thread;
+    }
+
+    // new activity, then init() without waiting: calls sent meanwhile go through the pre-init buffer
+    private void startRuntime() {
+        harness = CoronaHarness.start(filesDir);
+        dispatcher = new CoronaRuntimeTaskDispatcher(harness.getRuntime());
+        harness.call("init", listener, config.initOptions);
+    }
+
+    // the activity is destroyed and a new one started, tasks sent to the old runtime are dropped
+    private void restart() {
+        harness.exit();
+        restartCount++;
+        startRuntime();
+    }
+
+    // run frames until nothing moves anymore (or the drain timeout)
+    private void drain() {
+        long deadline = System.nanoTime() + millis(config.drainTimeout);
+        long lastProgress = System.nanoTime();
+        long lastTotal = -1;
+
+        while (System.nanoTime() < deadline) {
+            int work = harness.runFrame();
+            long total = work + Looper.getMainLooper().getQueue().size();
+            for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+                total += arrived[kind].get() + duplicates[kind].get();
+            }
+
+            long now = System.nanoTime();
+            if (total != lastTotal) {
+                lastTotal = total;
+                lastProgress = now;
+            } else if (now - lastProgress >= SETTLE_TIME) {
+                return;
+            }
+            waitUntil(now + millis(config.frameInterval));
+        }
+    }
+
+    // -------------------------------------------------------
+    // calls
+    // -------------------------------------------------------
+
+    // sends calls at its share of the rate, catching up in bursts when it falls behind
+    private class Producer extends Thread {
+        private final Random random;
+
+        Producer(int index) {
+            super("producer-" + index);
+            random = new Random(index);
+        }
+
+        @Override
+        public void run() {
+            long interval = TimeUnit.SECONDS.toNanos(1) * config.producers / config.rate;
+            long next = System.nanoTime();
+
+            while (producing) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                int slot = (int) (nextSequence.getAndIncrement() & slotMask);
+                dueAt[slot] = next;
+                arrivals.set(slot, 0);
+
+                double draw = random.nextDouble();
+                int kind = KIND_EVENT;
+                if (draw < config.purchaseRatio) {
+                    kind = KIND_PURCHASE;
+                } else if (draw < config.purchaseRatio + config.deepLinkRatio) {
+                    kind = KIND_DEEP_LINK;
+                }
+
+                sent[kind].incrementAndGet();
+                dispatcher.send(new CallTask(kind, slot));
+                next += interval;
+            }
+        }
+    }
+
+    // one Lua call, run on the Lua thread; the slot travels as slot + 1 since 0 is not a valid price
+    private class CallTask implements CoronaRuntimeTask {
+        private final int kind;
+        private final int slot;
+
+        CallTask(int kind, int slot) {
+            this.kind = kind;
+            this.slot = slot;
+        }
+
+        @Override
+        public void executeUsing(CoronaRuntime runtime) {
+            LuaState L = runtime.getLuaState();
+            int top = L.getTop();
+            try {
+                L.getGlobal("tenjin");
+                L.getField(-1, KIND_NAMES[kind]);
+                L.remove(-2);
+
+                if (kind == KIND_EVENT) {
+                    L.pushString(EVENT_NAME);
+                    L.pushInteger(slot + 1);
+                    L.call(2, 0);
+                } else if (kind == KIND_PURCHASE) {
+                    L.newTable();
+                    L.pushString(PRODUCT_ID);
+                    L.setField(-2, "productId");
+                    L.pushString("USD");
+                    L.setField(-2, "currencyCode");
+                    L.pushInteger(1);
+                    L.setField(-2, "quantity");
+                    L.pushNumber(slot + 1);
+                    L.setField(-2, "unitPrice");
+                    L.call(1, 0);
+                } else {
+                    L.pushJavaFunction(new DeepLinkListener(slot + 1));
+                    L.call(1, 0);
+                }
+                called[kind]++;
+            } catch (RuntimeException ex) {
+                L.setTop(top);
+                if (luaErrors++ == 0) {
+                    System.err.println("tenjin." + KIND_NAMES[kind] + "() failed");
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class DeepLinkListener implements JavaFunction {
+        private final int value;
+
+        DeepLinkListener(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            arrived(KIND_DEEP_LINK, value);
+            return 0;
+        }
+    }
+
+    // a call reached the SDK or its listener (any thread)
+    private void arrived(int kind, int value) {
+        long now = System.nanoTime();
+        int slot = value - 1;
+        if ((slot < 0) || (slot > slotMask)) {
+            return;
+        }
+
+        if (arrivals.getAndIncrement(slot) > 0) {
+            duplicates[kind].incrementAndGet();
+            return;
+        }
+
+        arrived[kind].incrementAndGet();
+        long due = dueAt[slot];
+        if (due >= measureFrom) {
+            latencies[kind].record(now - due);
+        }
+    }
+
+    // -------------------------------------------------------
+    // measurements
+    // -------------------------------------------------------
+
+    private void sample(boolean suspended) {
+        addSample("runtime tasks", harness.getRuntime().getTaskCount());
+        addSample("main looper messages", Looper.getMainLooper().getQueue().size());
+
+        // no Lua while suspended
+        if (suspended) {
+            return;
+        }
+
+        Map<?, ?> stats = (Map<?, ?>) harness.call("getStats").get(0);
+        Map<?, ?> queues = (Map<?, ?>) stats.get("queues");
+        addSample("batched events", ((Number) queues.get("events")).longValue());
+        addSample("callbacks", ((Number) queues.get("callbacks")).longValue());
+        addSample("pre-init events", ((Number) queues.get("preInit")).longValue());
+        addSample("listener refs", ((Number) stats.get("listenerRefs")).longValue());
+    }
+
+    private void addSample(String name, long depth) {
+        long[] sample = depths.get(name);
+        if (sample == null) {
+            sample = new long[3];
+            depths.put(name, sample);
+        }
+        sample[0]++;
+        sample[1] += depth;
+        sample[2] = Math.max(sample[2], depth);
+    }
+
+    // bytes in use on the heap once the garbage is collected
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void report(long heapBaseline, long heapEnd) {
+        System.out.println();
+        System.out.println("calls          sent       run      dropped  arrived    duplicates  lost");
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            long run = called[kind];
+            System.out.printf("%-14s %-10d %-8d %-8d %-10d %-11d %d%n", KIND_NAMES[kind], sent[kind].get(), run,
+                    sent[kind].get() - run, arrived[kind].get(), duplicates[kind].get(), run - arrived[kind].get());
+        }
+        System.out.println("(dropped: sent to a runtime that exited, lost: run but never reached the SDK or listener)");
+
+        System.out.println();
+        System.out.println("latency (ms)               count      p50      p99      p99.9    max");
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            LatencyRecorder latency = latencies[kind];
+            System.out.printf("%-26s %-10d %-8.3f %-8.3f %-8.3f %.3f%n", LATENCY_NAMES[kind], latency.getCount(),
+                    latency.getPercentileMicros(0.50) / 1000.0, latency.getPercentileMicros(0.99) / 1000.0,
+                    latency.getPercentileMicros(0.999) / 1000.0, latency.getMaxMicros() / 1000.0);
+        }
+
+        System.out.println();
+        System.out.println("queue depth            mean       max");
+        for (Map.Entry<String, long[]> entry : depths.entrySet()) {
+            long[] sample = entry.getValue();
+            System.out.printf("%-22s %-10.1f %d%n", entry.getKey(), (double) sample[1] / sample[0], sample[2]);
+        }
+
+        System.out.println();
+        System.out.println("callbacks " + callbacks);
+        System.out.println("lifecycle " + suspendCount + " suspends, " + restartCount + " restarts");
+        System.out.printf("heap      %.1f MB after warmup, %.1f MB at the end, growth %+.1f MB%n",
+                heapBaseline / 1048576.0, heapEnd / 1048576.0, (heapEnd - heapBaseline) / 1048576.0);
+        System.out.println("errors    " + luaErrors + " Lua calls, " + threadErrors.get() + " threads");
+    }
+
+    // -------------------------------------------------------
+    // helpers
+    // -------------------------------------------------------
+
+    private static AtomicLong[] counters() {
+        AtomicLong[] counters = new AtomicLong[KIND_NAMES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void waitUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,128 @@
+//
+// SimulatorConfig.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin.jvm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a {@link LoadSimulator} run, parsed from "key=value" arguments.
+ * <p>
+ * Arguments starting with "init." are passed to tenjin.init(), e.g. "init.executionMode=background"
+ * or "init.eventJournal=true" (numbers and booleans are converted).
+ */
+public class SimulatorConfig {
+    // load
+    int rate = 50000;               // Lua calls per second, all producers together
+    int producers = 4;              // threads sending the calls to the runtime
+    double purchaseRatio = 0.05;    // share of the calls that are logPurchase()
+    double deepLinkRatio = 0.01;    // share of the calls that are getDeepLink()
+
+    // timing (ms)
+    long duration = 10000;          // measured run, after the warmup
+    long warmup = 2000;             // not measured, lets the JIT settle
+    long frameInterval = 16;        // Lua thread frame pacing
+    long sampleInterval = 100;      // queue depth sampling
+    long drainTimeout = 10000;      // max wait for the SDK to catch up once producers stop
+
+    // lifecycle (ms, 0 = never)
+    long suspendInterval = 0;       // time between onSuspended() calls
+    long suspendTime = 200;         // time until the matching onResumed(), no frames meanwhile
+    long restartInterval = 0;       // time between activity restarts (onExiting(), new runtime, init)
+
+    final Map<String, Object> initOptions = new LinkedHashMap<>();
+
+    SimulatorConfig() {
+        initOptions.put("apiKey", "simulator");
+    }
+
+    static SimulatorConfig parse(String[] args) {
+        SimulatorConfig config = new SimulatorConfig();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("expected key=value, got \"" + arg + "\"");
+            }
+
+            String key = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+            if (key.startsWith("init.")) {
+                config.initOptions.put(key.substring("init.".length()), toLuaValue(value));
+                continue;
+            }
+
+            switch (key) {
+                case "rate":
+                    config.rate = Integer.parseInt(value);
+                    break;
+                case "producers":
+                    config.producers = Integer.parseInt(value);
+                    break;
+                case "purchaseRatio":
+                    config.purchaseRatio = Double.parseDouble(value);
+                    break;
+                case "deepLinkRatio":
+                    config.deepLinkRatio = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    config.duration = Long.parseLong(value);
+                    break;
+                case "warmup":
+                    config.warmup = Long.parseLong(value);
+                    break;
+                case "frameInterval":
+                    config.frameInterval = Long.parseLong(value);
+                    break;
+                case "sampleInterval":
+                    config.sampleInterval = Long.parseLong(value);
+                    break;
+                case "drainTimeout":
+                    config.drainTimeout = Long.parseLong(value);
+                    break;
+                case "suspendInterval":
+                    config.suspendInterval = Long.parseLong(value);
+                    break;
+                case "suspendTime":
+                    config.suspendTime = Long.parseLong(value);
+                    break;
+                case "restartInterval":
+                    config.restartInterval = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting \"" + key + "\"");
+            }
+        }
+
+        if ((config.rate <= 0) || (config.producers <= 0) || (config.duration <= 0)) {
+            throw new IllegalArgumentException("rate, producers and duration must be positive");
+        }
+        if ((config.purchaseRatio < 0) || (config.deepLinkRatio < 0) || (config.purchaseRatio + config.deepLinkRatio > 1)) {
+            throw new IllegalArgumentException("purchaseRatio and deepLinkRatio must be between 0 and 1 together");
+        }
+        return config;
+    }
+
+    private static Object toLuaValue(String value) {
+        if ("true".equals(value) || "false".equals(value)) {
+            return Boolean.valueOf(value);
+        }
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException ex) {
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return rate + " calls/s from " + producers + " producers (" + Math.round(purchaseRatio * 100) + "% purchases, "
+                + Math.round(deepLinkRatio * 100) + "% deep links) for " + duration + " ms after " + warmup + " ms of warmup, "
+                + "suspend every " + suspendInterval + " ms, restart every " + restartInterval + " ms, init " + initOptions;
+    }
+}
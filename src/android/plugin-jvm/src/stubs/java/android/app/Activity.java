@@ -0,0 +1,31 @@
+//
+// Activity.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * JVM fake of the Android activity.
+ */
+public class Activity extends Context {
+    // fake only: an activity whose private files live in the given directory
+    public Activity(java.io.File filesDir) {
+        super(filesDir);
+    }
+
+    public final void runOnUiThread(Runnable action) {
+        Looper mainLooper = Looper.getMainLooper();
+        if (Looper.myLooper() == mainLooper) {
+            action.run();
+        } else {
+            new Handler(mainLooper).post(action);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+//
+// Context.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM fake of the Android context: only knows its files directory.
+ */
+public class Context {
+    private final File filesDir;
+
+    // fake only: a context whose private files live in the given directory
+    public Context(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    public File getFilesDir() {
+        filesDir.mkdirs();
+        return filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,49 @@
+//
+// Handler.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.os;
+
+/**
+ * JVM fake of the Android handler: posts runnables to the message queue of its looper.
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler() {
+        this(checkLooper(Looper.myLooper()));
+    }
+
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new NullPointerException("no Looper (the fake main Looper is created by Looper.prepareMainLooper())");
+        }
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.getQueue().enqueue(this, r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return looper.getQueue().enqueue(this, r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.getQueue().remove(this, r);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    private static Looper checkLooper(Looper looper) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler inside thread " + Thread.currentThread() + " that has not called Looper.prepare()");
+        }
+        return looper;
+    }
+}
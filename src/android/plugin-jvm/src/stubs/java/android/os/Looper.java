@@ -0,0 +1,100 @@
+//
+// Looper.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.os;
+
+/**
+ * JVM fake of the Android looper: one message queue per thread, plus the process-wide main looper.
+ * <p>
+ * The main looper is created by {@link #prepareMainLooper()}. It is either run by a thread in
+ * {@link #loop()} (like on a device), or drained with {@link #idle()} by a test or benchmark.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> threadLooper = new ThreadLocal<>();
+    private static volatile Looper mainLooper = null;
+
+    private final MessageQueue queue = new MessageQueue();
+    private final Thread thread;
+
+    private Looper(Thread thread) {
+        this.thread = thread;
+    }
+
+    public static void prepare() {
+        if (threadLooper.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        threadLooper.set(new Looper(Thread.currentThread()));
+    }
+
+    public static void prepareMainLooper() {
+        prepare();
+        synchronized (Looper.class) {
+            if (mainLooper != null) {
+                throw new IllegalStateException("The main Looper has already been prepared.");
+            }
+            mainLooper = myLooper();
+        }
+    }
+
+    public static Looper getMainLooper() {
+        return mainLooper;
+    }
+
+    public static Looper myLooper() {
+        return threadLooper.get();
+    }
+
+    public static MessageQueue myQueue() {
+        return myLooper().queue;
+    }
+
+    // process this thread's messages until quit()
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        me.queue.loop();
+    }
+
+    public void quit() {
+        queue.quit();
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public MessageQueue getQueue() {
+        return queue;
+    }
+
+    public boolean isCurrentThread() {
+        return myLooper() == this;
+    }
+
+    /**
+     * Fake only: runs the messages that are due, then the idle handlers, on the calling thread, which
+     * acts as the looper's thread meanwhile. For a looper nobody runs with {@link #loop()}.
+     *
+     * @return Returns the number of messages run.
+     */
+    public int idle() {
+        Looper previous = threadLooper.get();
+        if (previous == this) {
+            return queue.drain();
+        }
+
+        threadLooper.set(this);
+        try {
+            return queue.drain();
+        } finally {
+            threadLooper.set(previous);
+        }
+    }
+}
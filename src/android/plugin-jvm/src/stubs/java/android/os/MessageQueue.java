@@ -0,0 +1,250 @@
+//
+// MessageQueue.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.os;
+
+import java.util.ArrayList;
+
+/**
+ * JVM fake of the Android message queue: runnables ordered by due time, plus idle handlers that run
+ * whenever no message is due. Queue entries are pooled like Android messages, so posting does not
+ * allocate once the pool is warm.
+ * <p>
+ * The queue is either run by a thread in {@link Looper#loop()}, or drained on demand with
+ * {@link Looper#idle()}.
+ */
+public final class MessageQueue {
+    /**
+     * Called when the queue has no message due, returns false to be removed.
+     */
+    public interface IdleHandler {
+        boolean queueIdle();
+    }
+
+    private static final int MAX_POOL_SIZE = 64;
+
+    private static final class Message {
+        Handler target;
+        Runnable callback;
+        long when;
+        Message next;
+    }
+
+    private Message head = null;    // by due time, in posting order for equal times
+    private Message pool = null;
+    private int poolSize = 0;
+    private final ArrayList<IdleHandler> idleHandlers = new ArrayList<>();
+    private IdleHandler[] pendingIdleHandlers = new IdleHandler[4];
+    private Thread loopingThread = null;
+    private boolean quitting = false;
+
+    MessageQueue() {
+    }
+
+    public void addIdleHandler(IdleHandler handler) {
+        synchronized (this) {
+            idleHandlers.add(handler);
+        }
+    }
+
+    public void removeIdleHandler(IdleHandler handler) {
+        synchronized (this) {
+            idleHandlers.remove(handler);
+        }
+    }
+
+    // no message is due
+    public synchronized boolean isIdle() {
+        return (head == null) || (SystemClock.uptimeMillis() < head.when);
+    }
+
+    // fake only: number of queued messages, due or not
+    public synchronized int size() {
+        int count = 0;
+        for (Message message = head; message != null; message = message.next) {
+            count++;
+        }
+        return count;
+    }
+
+    synchronized boolean enqueue(Handler target, Runnable callback, long when) {
+        if (quitting) {
+            return false;
+        }
+
+        Message message = pool;
+        if (message != null) {
+            pool = message.next;
+            poolSize--;
+        } else {
+            message = new Message();
+        }
+        message.target = target;
+        message.callback = callback;
+        message.when = when;
+
+        if ((head == null) || (when < head.when)) {
+            message.next = head;
+            head = message;
+        } else {
+            Message previous = head;
+            while ((previous.next != null) && (previous.next.when <= when)) {
+                previous = previous.next;
+            }
+            message.next = previous.next;
+            previous.next = message;
+        }
+
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler target, Runnable callback) {
+        Message previous = null;
+        Message message = head;
+        while (message != null) {
+            Message next = message.next;
+            if ((message.target == target) && (message.callback == callback)) {
+                if (previous == null) {
+                    head = next;
+                } else {
+                    previous.next = next;
+                }
+                recycle(message);
+            } else {
+                previous = message;
+            }
+            message = next;
+        }
+    }
+
+    // process messages until quit() (Looper.loop())
+    void loop() {
+        synchronized (this) {
+            loopingThread = Thread.currentThread();
+        }
+
+        boolean idleHandled = false;
+        while (true) {
+            Runnable callback;
+            synchronized (this) {
+                callback = pollDue();
+                if ((callback == null) && idleHandled) {
+                    if (quitting) {
+                        break;
+                    }
+                    waitForMessage();
+                    continue;
+                }
+            }
+
+            if (callback != null) {
+                callback.run();
+                idleHandled = false;
+            } else {
+                runIdleHandlers();
+                idleHandled = true;
+            }
+        }
+    }
+
+    // run the due messages, then the idle handlers once nothing is due, on the calling thread (Looper.idle())
+    int drain() {
+        synchronized (this) {
+            if (loopingThread != null) {
+                throw new IllegalStateException("the queue is run by " + loopingThread.getName() + " (Looper.loop())");
+            }
+        }
+
+        int count = 0;
+        while (true) {
+            Runnable callback;
+            while ((callback = pollDueLocked()) != null) {
+                callback.run();
+                count++;
+            }
+
+            runIdleHandlers();
+            if (isIdle()) {
+                return count;
+            }
+        }
+    }
+
+    synchronized void quit() {
+        quitting = true;
+        while (head != null) {
+            Message next = head.next;
+            recycle(head);
+            head = next;
+        }
+        notifyAll();
+    }
+
+    private synchronized Runnable pollDueLocked() {
+        return pollDue();
+    }
+
+    // unlink the first message if it is due (lock held)
+    private Runnable pollDue() {
+        if ((head == null) || (head.when > SystemClock.uptimeMillis())) {
+            return null;
+        }
+
+        Message message = head;
+        head = message.next;
+        Runnable callback = message.callback;
+        recycle(message);
+        return callback;
+    }
+
+    // wait for a message or for the first one to be due (lock held)
+    private void waitForMessage() {
+        try {
+            if (head == null) {
+                wait();
+            } else {
+                wait(Math.max(1, head.when - SystemClock.uptimeMillis()));
+            }
+        } catch (InterruptedException ex) {
+            quitting = true;
+        }
+    }
+
+    private void recycle(Message message) {
+        message.target = null;
+        message.callback = null;
+        if (poolSize < MAX_POOL_SIZE) {
+            message.next = pool;
+            pool = message;
+            poolSize++;
+        } else {
+            message.next = null;
+        }
+    }
+
+    private void runIdleHandlers() {
+        IdleHandler[] handlers;
+        int count;
+        synchronized (this) {
+            count = idleHandlers.size();
+            if (count == 0) {
+                return;
+            }
+            handlers = pendingIdleHandlers = idleHandlers.toArray(pendingIdleHandlers);
+        }
+
+        for (int i = 0; i < count; i++) {
+            IdleHandler handler = handlers[i];
+            handlers[i] = null;
+
+            if (!handler.queueIdle()) {
+                removeIdleHandler(handler);
+            }
+        }
+    }
+}
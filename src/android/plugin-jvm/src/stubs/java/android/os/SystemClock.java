@@ -0,0 +1,38 @@
+//
+// SystemClock.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.os;
+
+/**
+ * JVM fake of the Android clocks. Both count from a fake boot a minute before the class loaded,
+ * and can be moved forward with {@link #advance(long)} to make delayed messages due.
+ */
+public final class SystemClock {
+    private static final long BOOT_TIME = 60 * 1000;
+    private static final long start = System.nanoTime();
+    private static volatile long offset = BOOT_TIME;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return (System.nanoTime() - start) / 1000000 + offset;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return (System.nanoTime() - start) + offset * 1000000;
+    }
+
+    // fake only: let time pass without waiting (a looper blocked in loop() wakes up at its next deadline)
+    public static synchronized void advance(long millis) {
+        offset += millis;
+    }
+}
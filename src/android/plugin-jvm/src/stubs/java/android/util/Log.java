@@ -0,0 +1,69 @@
+//
+// Log.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package android.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM fake of the Android log: counts the lines and keeps the last one. Lines are printed to the
+ * standard output only with -Dandroid.util.Log.echo=true, so benchmarks measure the message building
+ * and not the console.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final boolean ECHO = Boolean.getBoolean("android.util.Log.echo");
+    private static final AtomicLong count = new AtomicLong();
+    private static volatile String lastMessage = null;
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg);
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        count.incrementAndGet();
+        lastMessage = msg;
+        if (ECHO) {
+            System.out.println(tag + ": " + msg);
+        }
+        return msg.length();
+    }
+
+    // fake only: number of lines logged
+    public static long getCount() {
+        return count.get();
+    }
+
+    // fake only: last line logged, null if none
+    public static String getLastMessage() {
+        return lastMessage;
+    }
+}
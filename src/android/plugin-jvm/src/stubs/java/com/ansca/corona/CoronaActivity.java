@@ -0,0 +1,22 @@
+//
+// CoronaActivity.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import android.app.Activity;
+
+import java.io.File;
+
+/**
+ * JVM fake of the Corona activity.
+ */
+public class CoronaActivity extends Activity {
+    // fake only: an activity whose private files live in the given directory
+    public CoronaActivity(File filesDir) {
+        super(filesDir);
+    }
+}
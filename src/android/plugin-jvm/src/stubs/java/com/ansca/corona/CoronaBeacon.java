@@ -0,0 +1,48 @@
+//
+// CoronaBeacon.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import com.naef.jnlua.JavaFunction;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM fake of the Corona beacon: records the sends instead of making network requests.
+ */
+public final class CoronaBeacon {
+    public static final String REQUEST = "request";
+    public static final String IMPRESSION = "impression";
+
+    private static final AtomicInteger sendCount = new AtomicInteger();
+    private static volatile Thread lastSendThread = null;
+
+    private CoronaBeacon() {
+    }
+
+    public static void sendDeviceDataToBeacon(CoronaRuntimeTaskDispatcher dispatcher, String pluginName, String pluginVersion,
+                                              String eventType, String placementId, JavaFunction listener) {
+        lastSendThread = Thread.currentThread();
+        sendCount.incrementAndGet();
+    }
+
+    // fake only: number of beacons sent
+    public static int getSendCount() {
+        return sendCount.get();
+    }
+
+    // fake only: thread the last beacon was sent from, null if none
+    public static Thread getLastSendThread() {
+        return lastSendThread;
+    }
+
+    // fake only
+    public static void reset() {
+        sendCount.set(0);
+        lastSendThread = null;
+    }
+}
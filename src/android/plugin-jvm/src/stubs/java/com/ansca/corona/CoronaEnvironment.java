@@ -0,0 +1,59 @@
+//
+// CoronaEnvironment.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import android.content.Context;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * JVM fake of the Corona environment. The activity and application context are set by the harness,
+ * which also fires the runtime events to the listeners (see {@link #getRuntimeListeners()}).
+ */
+public final class CoronaEnvironment {
+    private static volatile CoronaActivity coronaActivity = null;
+    private static volatile Context applicationContext = null;
+    private static final List<CoronaRuntimeListener> runtimeListeners = new CopyOnWriteArrayList<>();
+
+    private CoronaEnvironment() {
+    }
+
+    public static CoronaActivity getCoronaActivity() {
+        return coronaActivity;
+    }
+
+    public static Context getApplicationContext() {
+        return applicationContext;
+    }
+
+    public static void addRuntimeListener(CoronaRuntimeListener listener) {
+        if (!runtimeListeners.contains(listener)) {
+            runtimeListeners.add(listener);
+        }
+    }
+
+    public static void removeRuntimeListener(CoronaRuntimeListener listener) {
+        runtimeListeners.remove(listener);
+    }
+
+    // fake only: the current activity, null once destroyed
+    public static void setCoronaActivity(CoronaActivity activity) {
+        coronaActivity = activity;
+    }
+
+    // fake only
+    public static void setApplicationContext(Context context) {
+        applicationContext = context;
+    }
+
+    // fake only: the listeners the runtime events go to
+    public static List<CoronaRuntimeListener> getRuntimeListeners() {
+        return runtimeListeners;
+    }
+}
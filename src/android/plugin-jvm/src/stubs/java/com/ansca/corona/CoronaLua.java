@@ -0,0 +1,99 @@
+//
+// CoronaLua.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+
+/**
+ * JVM fake of the Corona Lua helpers, built on the fake Lua state.
+ */
+public final class CoronaLua {
+    public static final int REFNIL = -1;
+    public static final int NOREF = -2;
+
+    private CoronaLua() {
+    }
+
+    public static int newRef(LuaState L, int index) {
+        L.pushValue(index);
+        return L.ref(LuaState.REGISTRYINDEX);
+    }
+
+    public static void deleteRef(LuaState L, int ref) {
+        L.unref(LuaState.REGISTRYINDEX, ref);
+    }
+
+    // a function, or a table with a method named after the event
+    public static boolean isListener(LuaState L, int index, String eventName) {
+        LuaType type = L.type(index);
+        if (type == LuaType.FUNCTION) {
+            return true;
+        }
+        if (type != LuaType.TABLE) {
+            return false;
+        }
+
+        L.getField(index, eventName);
+        boolean isListener = (L.type(-1) == LuaType.FUNCTION);
+        L.pop(1);
+        return isListener;
+    }
+
+    public static void newEvent(LuaState L, String eventName) {
+        L.newTable();
+        L.pushString(eventName);
+        L.setField(-2, CoronaLuaEvent.NAME_KEY);
+    }
+
+    public static void pushValue(LuaState L, Object value) {
+        if (value == null) {
+            L.pushNil();
+        } else if (value instanceof String) {
+            L.pushString((String) value);
+        } else if (value instanceof Boolean) {
+            L.pushBoolean((Boolean) value);
+        } else if (value instanceof Number) {
+            L.pushNumber(((Number) value).doubleValue());
+        } else {
+            L.pushString(value.toString());
+        }
+    }
+
+    // call the listener with the event table on top of the stack, which is popped (results stay)
+    // the event table is released afterwards (see LuaState.setTableRecycling())
+    public static void dispatchEvent(LuaState L, int listenerRef, int resultCount) throws Exception {
+        L.rawGet(LuaState.REGISTRYINDEX, listenerRef);
+        int argCount;
+        if (L.type(-1) == LuaType.TABLE) {
+            L.getField(-2, CoronaLuaEvent.NAME_KEY);
+            String eventName = L.toString(-1);
+            L.pop(1);
+            L.getField(-1, eventName);     // event, listener, method
+            L.insert(-2);                  // event, method, listener
+            argCount = 2;
+        } else if (L.type(-1) == LuaType.FUNCTION) {
+            argCount = 1;
+        } else {
+            L.pop(2);
+            throw new IllegalArgumentException("listener ref " + listenerRef + " is not a listener");
+        }
+
+        L.pushValue(-argCount - 1);
+        try {
+            L.call(argCount, resultCount);
+        } catch (RuntimeException ex) {
+            L.pop(1);   // the call cleared the listener and its arguments
+            throw ex;
+        }
+
+        int event = -(resultCount + 1);
+        L.releaseTable(event);
+        L.remove(event);
+    }
+}
@@ -0,0 +1,21 @@
+//
+// CoronaLuaEvent.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+/**
+ * JVM fake of the Corona Lua event keys.
+ */
+public final class CoronaLuaEvent {
+    public static final String NAME_KEY = "name";
+    public static final String PROVIDER_KEY = "provider";
+    public static final String ISERROR_KEY = "isError";
+    public static final String RESPONSE_KEY = "response";
+
+    private CoronaLuaEvent() {
+    }
+}
@@ -0,0 +1,99 @@
+//
+// CoronaRuntime.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import com.naef.jnlua.LuaState;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM fake of the Corona runtime: a Lua state plus the queue of tasks sent by its dispatchers.
+ * <p>
+ * Nothing runs by itself: the Lua thread calls {@link #runTasks()} once per frame, like the runtime
+ * does before rendering.
+ */
+public class CoronaRuntime {
+    private static final Map<LuaState, CoronaRuntime> runtimes = new ConcurrentHashMap<>();
+
+    private final LuaState luaState;
+    private final ArrayDeque<CoronaRuntimeTask> tasks = new ArrayDeque<>();
+    private volatile boolean running = true;
+
+    // fake only: a runtime for the given Lua state
+    public CoronaRuntime(LuaState luaState) {
+        this.luaState = luaState;
+        runtimes.put(luaState, this);
+    }
+
+    public LuaState getLuaState() {
+        return luaState;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // runtime of a Lua state, null if it has none or was disposed
+    static CoronaRuntime of(LuaState luaState) {
+        return runtimes.get(luaState);
+    }
+
+    // queue a task from any thread, returns false if the runtime is gone
+    boolean post(CoronaRuntimeTask task) {
+        synchronized (tasks) {
+            if (!running) {
+                return false;
+            }
+            tasks.add(task);
+            return true;
+        }
+    }
+
+    /**
+     * Fake only: runs the tasks queued so far on the calling thread (the Lua thread). Tasks they send
+     * wait for the next call, like tasks sent during a frame wait for the next frame.
+     *
+     * @return Returns the number of tasks run.
+     */
+    public int runTasks() {
+        int count;
+        synchronized (tasks) {
+            count = tasks.size();
+        }
+
+        for (int i = 0; i < count; i++) {
+            CoronaRuntimeTask task;
+            synchronized (tasks) {
+                task = tasks.poll();
+            }
+            if (task == null) {
+                return i;
+            }
+            task.executeUsing(this);
+        }
+        return count;
+    }
+
+    // fake only: number of tasks waiting for the next frame
+    public int getTaskCount() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    // fake only: the runtime is destroyed, queued tasks are dropped and new ones refused
+    public void dispose() {
+        synchronized (tasks) {
+            running = false;
+            tasks.clear();
+        }
+        runtimes.remove(luaState);
+    }
+}
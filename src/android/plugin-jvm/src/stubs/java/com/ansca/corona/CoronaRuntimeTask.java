@@ -0,0 +1,15 @@
+//
+// CoronaRuntimeTask.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+/**
+ * JVM fake of the Corona runtime task, run on the Lua thread by {@link CoronaRuntime#runTasks()}.
+ */
+public interface CoronaRuntimeTask {
+    void executeUsing(CoronaRuntime runtime);
+}
@@ -0,0 +1,40 @@
+//
+// CoronaRuntimeTaskDispatcher.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.ansca.corona;
+
+import com.naef.jnlua.LuaState;
+
+/**
+ * JVM fake of the Corona task dispatcher: sends tasks to the queue of a runtime, from any thread.
+ */
+public class CoronaRuntimeTaskDispatcher {
+    private final CoronaRuntime runtime;
+
+    public CoronaRuntimeTaskDispatcher(CoronaRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    public CoronaRuntimeTaskDispatcher(LuaState luaState) {
+        this(CoronaRuntime.of(luaState));
+    }
+
+    public boolean isRuntimeAvailable() {
+        return (runtime != null) && runtime.isRunning();
+    }
+
+    public boolean isRuntimeUnavailable() {
+        return !isRuntimeAvailable();
+    }
+
+    // tasks sent once the runtime is gone are dropped
+    public void send(CoronaRuntimeTask task) {
+        if (runtime != null) {
+            runtime.post(task);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+//
+// JavaFunction.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.naef.jnlua;
+
+/**
+ * JVM fake of the JNLua Java function: the only kind of function the fake Lua state can call.
+ */
+public interface JavaFunction {
+    int invoke(LuaState luaState);
+}
@@ -0,0 +1,547 @@
+//
+// LuaState.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.naef.jnlua;
+
+import java.util.Arrays;
+
+/**
+ * JVM fake of the JNLua Lua state: a value stack, tables, globals and a registry implemented in Java,
+ * covering the API used by the Tenjin plugin. Functions are Java functions only; calling one gives it
+ * its own stack frame, like Lua does.
+ * <p>
+ * Values are kept in parallel primitive arrays, so pushing and reading numbers, strings and tables does
+ * not allocate. Tables are Java objects though, while on a device they live on the Lua heap: with
+ * {@link #setTableRecycling(boolean)} the tables passed to {@link #releaseTable(int)} are reused, which
+ * keeps Lua garbage out of Java allocation measurements.
+ * <p>
+ * Not thread safe, like the real state: only the Lua thread may use it.
+ */
+public class LuaState {
+    public static final int REGISTRYINDEX = -10000;
+    public static final int GLOBALSINDEX = -10002;
+    public static final int MULTRET = -1;
+
+    // value types (LuaType ordinals)
+    static final byte NIL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte NUMBER = 3;
+    static final byte STRING = 4;
+    static final byte TABLE = 5;
+    static final byte FUNCTION = 6;
+
+    private static final LuaType[] TYPES = LuaType.values();
+    private static final int REFNIL = -1;
+    private static final int TABLE_POOL_SIZE = 64;
+
+    private byte[] types = new byte[64];
+    private double[] numbers = new double[64];
+    private Object[] objects = new Object[64];
+    private int top = 0;    // first free slot
+    private int base = 0;   // slot of index 1 in the current frame
+
+    private final LuaTable globals = new LuaTable();
+    private final LuaTable registry = new LuaTable();
+    private int nextRef = 1;
+    private int[] freeRefs = new int[16];
+    private int freeRefCount = 0;
+
+    private boolean recycleTables = false;
+    private final LuaTable[] tablePool = new LuaTable[TABLE_POOL_SIZE];
+    private int tablePoolSize = 0;
+
+    // -------------------------------------------------------
+    // stack
+    // -------------------------------------------------------
+
+    public int getTop() {
+        return top - base;
+    }
+
+    public void setTop(int index) {
+        int newTop = (index >= 0) ? base + index : top + index + 1;
+        if (newTop < base) {
+            throw new IllegalArgumentException("illegal index " + index);
+        }
+        while (top < newTop) {
+            pushNil();
+        }
+        clearSlots(newTop, top);
+        top = newTop;
+    }
+
+    public void pop(int count) {
+        if ((count < 0) || (top - count < base)) {
+            throw new IllegalArgumentException("illegal count " + count);
+        }
+        clearSlots(top - count, top);
+        top -= count;
+    }
+
+    public void pushValue(int index) {
+        int from = checkSlot(index);
+        int to = push();
+        copySlot(from, to);
+    }
+
+    // move the top value to the given index, shifting up the values above it
+    public void insert(int index) {
+        int to = checkSlot(index);
+        int from = top - 1;
+        byte type = types[from];
+        double number = numbers[from];
+        Object object = objects[from];
+
+        for (int i = from; i > to; i--) {
+            copySlot(i - 1, i);
+        }
+        types[to] = type;
+        numbers[to] = number;
+        objects[to] = object;
+    }
+
+    // remove the value at the given index, shifting down the values above it
+    public void remove(int index) {
+        int slot = checkSlot(index);
+        for (int i = slot; i < top - 1; i++) {
+            copySlot(i + 1, i);
+        }
+        pop(1);
+    }
+
+    // -------------------------------------------------------
+    // push
+    // -------------------------------------------------------
+
+    public void pushNil() {
+        set(push(), NIL, 0, null);
+    }
+
+    public void pushBoolean(boolean value) {
+        set(push(), BOOLEAN, value ? 1 : 0, null);
+    }
+
+    public void pushNumber(double value) {
+        set(push(), NUMBER, value, null);
+    }
+
+    public void pushInteger(int value) {
+        set(push(), NUMBER, value, null);
+    }
+
+    public void pushString(String value) {
+        if (value == null) {
+            pushNil();
+        } else {
+            set(push(), STRING, 0, value);
+        }
+    }
+
+    public void pushJavaFunction(JavaFunction function) {
+        if (function == null) {
+            pushNil();
+        } else {
+            set(push(), FUNCTION, 0, function);
+        }
+    }
+
+    public void newTable() {
+        LuaTable table = (recycleTables && (tablePoolSize > 0)) ? tablePool[--tablePoolSize] : new LuaTable();
+        set(push(), TABLE, 0, table);
+    }
+
+    public void newTable(int arrayCount, int recordCount) {
+        newTable();
+    }
+
+    // -------------------------------------------------------
+    // read
+    // -------------------------------------------------------
+
+    // type of the value at the given index, null if the index is not valid
+    public LuaType type(int index) {
+        int slot = slot(index);
+        return (slot >= 0) ? TYPES[types[slot]] : null;
+    }
+
+    public String typeName(int index) {
+        LuaType type = type(index);
+        return (type != null) ? type.displayText() : "no value";
+    }
+
+    public boolean isNoneOrNil(int index) {
+        int slot = slot(index);
+        return (slot < 0) || (types[slot] == NIL);
+    }
+
+    public boolean isNil(int index) {
+        int slot = slot(index);
+        return (slot >= 0) && (types[slot] == NIL);
+    }
+
+    public boolean toBoolean(int index) {
+        int slot = slot(index);
+        if ((slot < 0) || (types[slot] == NIL)) {
+            return false;
+        }
+        return (types[slot] != BOOLEAN) || (numbers[slot] != 0);
+    }
+
+    // number, or string converted to a number, 0 otherwise
+    public double toNumber(int index) {
+        int slot = slot(index);
+        if (slot < 0) {
+            return 0;
+        }
+
+        if (types[slot] == NUMBER) {
+            return numbers[slot];
+        }
+        if (types[slot] == STRING) {
+            try {
+                return Double.parseDouble(((String) objects[slot]).trim());
+            } catch (NumberFormatException ex) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    public int toInteger(int index) {
+        return (int) toNumber(index);
+    }
+
+    // string, or number converted to a string, null otherwise
+    public String toString(int index) {
+        int slot = slot(index);
+        if (slot < 0) {
+            return null;
+        }
+
+        if (types[slot] == STRING) {
+            return (String) objects[slot];
+        }
+        if (types[slot] == NUMBER) {
+            double value = numbers[slot];
+            return (value == Math.rint(value)) && (Math.abs(value) < 1e15) ? Long.toString((long) value) : Double.toString(value);
+        }
+        return null;
+    }
+
+    public JavaFunction toJavaFunction(int index) {
+        int slot = slot(index);
+        return ((slot >= 0) && (types[slot] == FUNCTION)) ? (JavaFunction) objects[slot] : null;
+    }
+
+    // # operator: border of a table, or length of a string
+    public int length(int index) {
+        int slot = checkSlot(index);
+        if (types[slot] == TABLE) {
+            return ((LuaTable) objects[slot]).length();
+        }
+        if (types[slot] == STRING) {
+            return ((String) objects[slot]).length();
+        }
+        return 0;
+    }
+
+    public boolean rawEqual(int index1, int index2) {
+        int slot1 = slot(index1);
+        int slot2 = slot(index2);
+        if ((slot1 < 0) || (slot2 < 0) || (types[slot1] != types[slot2])) {
+            return false;
+        }
+
+        switch (types[slot1]) {
+            case NIL:
+                return true;
+            case BOOLEAN:
+            case NUMBER:
+                return numbers[slot1] == numbers[slot2];
+            case STRING:
+                return objects[slot1].equals(objects[slot2]);
+            default:
+                return objects[slot1] == objects[slot2];
+        }
+    }
+
+    // -------------------------------------------------------
+    // tables
+    // -------------------------------------------------------
+
+    public void getField(int index, String key) {
+        LuaTable table = table(index);
+        pushFrom(table, table.positionOf(key));
+    }
+
+    public void setField(int index, String key) {
+        LuaTable table = table(index);
+        int value = checkSlot(-1);
+        if (types[value] == NIL) {
+            int position = table.positionOf(key);
+            if (position >= 0) {
+                table.set(position, NIL, 0, null);
+            }
+        } else {
+            storeTo(table, table.positionForSet(key), value);
+        }
+        pop(1);
+    }
+
+    public void getGlobal(String name) {
+        getField(GLOBALSINDEX, name);
+    }
+
+    public void setGlobal(String name) {
+        setField(GLOBALSINDEX, name);
+    }
+
+    public void rawGet(int index, int key) {
+        LuaTable table = table(index);
+        pushFrom(table, table.positionOf(key));
+    }
+
+    public void rawSet(int index, int key) {
+        LuaTable table = table(index);
+        int value = checkSlot(-1);
+        if (types[value] == NIL) {
+            int position = table.positionOf(key);
+            if (position >= 0) {
+                table.set(position, NIL, 0, null);
+            }
+        } else {
+            storeTo(table, table.positionForSet(key), value);
+        }
+        pop(1);
+    }
+
+    // pop a key and push the next key and value of the table, returns false (nothing pushed) at the end
+    public boolean next(int index) {
+        LuaTable table = table(index);
+        int keySlot = checkSlot(-1);
+
+        int position;
+        switch (types[keySlot]) {
+            case NIL:
+                position = -1;
+                break;
+            case NUMBER:
+                position = table.positionOf((int) numbers[keySlot]);
+                break;
+            case STRING:
+                position = table.positionOf((String) objects[keySlot]);
+                break;
+            default:
+                throw new UnsupportedOperationException("fake Lua table: invalid key to 'next'");
+        }
+        if ((types[keySlot] != NIL) && (position < 0)) {
+            throw new IllegalStateException("invalid key to 'next'");
+        }
+        pop(1);
+
+        int next = table.nextPosition(position);
+        if (next < 0) {
+            return false;
+        }
+
+        if (table.isArrayPosition(next)) {
+            pushNumber(next + 1);
+        } else {
+            pushString(table.keyAt(next));
+        }
+        pushFrom(table, next);
+        return true;
+    }
+
+    // pop the top value into the table (registry only) under a new integer key
+    public int ref(int index) {
+        if (index != REGISTRYINDEX) {
+            throw new UnsupportedOperationException("fake LuaState: only registry refs are supported");
+        }
+
+        int value = checkSlot(-1);
+        if (types[value] == NIL) {
+            pop(1);
+            return REFNIL;
+        }
+
+        int ref = (freeRefCount > 0) ? freeRefs[--freeRefCount] : nextRef++;
+        storeTo(registry, registry.positionForSet(ref), value);
+        pop(1);
+        return ref;
+    }
+
+    public void unref(int index, int ref) {
+        if (index != REGISTRYINDEX) {
+            throw new UnsupportedOperationException("fake LuaState: only registry refs are supported");
+        }
+
+        int position = registry.positionOf(ref);
+        if ((position < 0) || (registry.typeAt(position) == NIL)) {
+            return;
+        }
+
+        registry.set(position, NIL, 0, null);
+        if (freeRefCount == freeRefs.length) {
+            freeRefs = Arrays.copyOf(freeRefs, freeRefCount * 2);
+        }
+        freeRefs[freeRefCount++] = ref;
+    }
+
+    // -------------------------------------------------------
+    // functions
+    // -------------------------------------------------------
+
+    // call the function below the given number of arguments, leaving returnCount results (or all with MULTRET)
+    public void call(int argCount, int returnCount) {
+        int function = top - argCount - 1;
+        if ((function < base) || (types[function] != FUNCTION)) {
+            throw new IllegalStateException("attempt to call a " + ((function < base) ? "no value" : TYPES[types[function]].displayText()) + " value");
+        }
+
+        int savedBase = base;
+        int resultCount;
+        base = function + 1;
+        try {
+            resultCount = ((JavaFunction) objects[function]).invoke(this);
+        } catch (RuntimeException ex) {
+            base = savedBase;
+            clearSlots(function, top);
+            top = function;
+            throw ex;
+        }
+        base = savedBase;
+
+        // results replace the function and its frame
+        int first = top - resultCount;
+        for (int i = 0; i < resultCount; i++) {
+            copySlot(first + i, function + i);
+        }
+        clearSlots(function + resultCount, top);
+        top = function + resultCount;
+
+        if (returnCount != MULTRET) {
+            setTop(getTop() - resultCount + returnCount);
+        }
+    }
+
+    // create a table of the functions, set it as global under the module name and leave it on the stack
+    public void register(String moduleName, NamedJavaFunction[] functions) {
+        newTable();
+        for (NamedJavaFunction function : functions) {
+            pushJavaFunction(function);
+            setField(-2, function.getName());
+        }
+        pushValue(-1);
+        setGlobal(moduleName);
+    }
+
+    // -------------------------------------------------------
+    // fake only
+    // -------------------------------------------------------
+
+    // reuse the tables passed to releaseTable() in newTable() (off by default)
+    public void setTableRecycling(boolean enabled) {
+        recycleTables = enabled;
+        if (!enabled) {
+            Arrays.fill(tablePool, 0, tablePoolSize, null);
+            tablePoolSize = 0;
+        }
+    }
+
+    // the table at the given index is garbage, as Lua would collect it (nothing may hold on to it)
+    public void releaseTable(int index) {
+        LuaTable table = table(index);
+        if (recycleTables && (tablePoolSize < TABLE_POOL_SIZE)) {
+            table.clear();
+            tablePool[tablePoolSize++] = table;
+        }
+    }
+
+    // number of values held in the registry by ref()
+    public int getRefCount() {
+        return nextRef - 1 - freeRefCount;
+    }
+
+    // -------------------------------------------------------
+    // implementation
+    // -------------------------------------------------------
+
+    // stack slot of an index, -1 if not valid
+    private int slot(int index) {
+        if (index > 0) {
+            int slot = base + index - 1;
+            return (slot < top) ? slot : -1;
+        }
+        if ((index < 0) && (index > REGISTRYINDEX)) {
+            int slot = top + index;
+            return (slot >= base) ? slot : -1;
+        }
+        return -1;
+    }
+
+    private int checkSlot(int index) {
+        int slot = slot(index);
+        if (slot < 0) {
+            throw new IllegalArgumentException("illegal index " + index);
+        }
+        return slot;
+    }
+
+    private LuaTable table(int index) {
+        if (index == REGISTRYINDEX) {
+            return registry;
+        }
+        if (index == GLOBALSINDEX) {
+            return globals;
+        }
+
+        int slot = checkSlot(index);
+        if (types[slot] != TABLE) {
+            throw new IllegalArgumentException("table expected at index " + index + ", got " + TYPES[types[slot]].displayText());
+        }
+        return (LuaTable) objects[slot];
+    }
+
+    private int push() {
+        if (top == types.length) {
+            types = Arrays.copyOf(types, top * 2);
+            numbers = Arrays.copyOf(numbers, top * 2);
+            objects = Arrays.copyOf(objects, top * 2);
+        }
+        return top++;
+    }
+
+    private void set(int slot, byte type, double number, Object object) {
+        types[slot] = type;
+        numbers[slot] = number;
+        objects[slot] = object;
+    }
+
+    private void copySlot(int from, int to) {
+        set(to, types[from], numbers[from], objects[from]);
+    }
+
+    private void clearSlots(int from, int to) {
+        for (int i = from; i < to; i++) {
+            types[i] = NIL;
+            objects[i] = null;
+        }
+    }
+
+    private void pushFrom(LuaTable table, int position) {
+        if ((position < 0) || (table.typeAt(position) == NIL)) {
+            pushNil();
+        } else {
+            set(push(), table.typeAt(position), table.numberAt(position), table.objectAt(position));
+        }
+    }
+
+    private void storeTo(LuaTable table, int position, int slot) {
+        table.set(position, types[slot], numbers[slot], objects[slot]);
+    }
+}
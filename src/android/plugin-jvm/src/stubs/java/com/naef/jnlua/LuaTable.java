@@ -0,0 +1,181 @@
+//
+// LuaTable.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.naef.jnlua;
+
+import java.util.Arrays;
+
+/**
+ * Table of the fake Lua state: an array part for the keys 1..n and an open addressing hash part for
+ * string keys. Values are stored like on the stack, as a type plus a number or an object.
+ * <p>
+ * A position addresses a value in either part: array positions come first, then hash slots.
+ * Positions are only valid until the table is modified.
+ */
+final class LuaTable {
+    private static final int MAX_ARRAY_SIZE = 1 << 24;
+
+    // array part, keys 1..arraySize (slots past arraySize are always nil)
+    private byte[] arrayTypes = new byte[4];
+    private double[] arrayNumbers = new double[4];
+    private Object[] arrayObjects = new Object[4];
+    private int arraySize = 0;
+
+    // hash part, keys set to nil stay in place until the next rehash
+    private String[] keys = new String[8];
+    private byte[] hashTypes = new byte[8];
+    private double[] hashNumbers = new double[8];
+    private Object[] hashObjects = new Object[8];
+    private int keyCount = 0;
+
+    // position of an existing integer key, -1 if absent
+    int positionOf(int key) {
+        return ((key >= 1) && (key <= arraySize)) ? key - 1 : -1;
+    }
+
+    // position of an existing string key, -1 if absent
+    int positionOf(String key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                return arrayTypes.length + i;
+            }
+        }
+        return -1;
+    }
+
+    // position for an integer key, added if absent
+    int positionForSet(int key) {
+        if ((key < 1) || (key > MAX_ARRAY_SIZE)) {
+            throw new UnsupportedOperationException("fake Lua table: integer keys must be in 1.." + MAX_ARRAY_SIZE + ", got " + key);
+        }
+
+        if (key > arrayTypes.length) {
+            int capacity = Math.max(key, arrayTypes.length * 2);
+            arrayTypes = Arrays.copyOf(arrayTypes, capacity);
+            arrayNumbers = Arrays.copyOf(arrayNumbers, capacity);
+            arrayObjects = Arrays.copyOf(arrayObjects, capacity);
+        }
+        arraySize = Math.max(arraySize, key);
+        return key - 1;
+    }
+
+    // position for a string key, added if absent
+    int positionForSet(String key) {
+        int position = positionOf(key);
+        if (position >= 0) {
+            return position;
+        }
+
+        if ((keyCount + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        keyCount++;
+        return arrayTypes.length + i;
+    }
+
+    boolean isArrayPosition(int position) {
+        return position < arrayTypes.length;
+    }
+
+    // key of a hash position
+    String keyAt(int position) {
+        return keys[position - arrayTypes.length];
+    }
+
+    byte typeAt(int position) {
+        return isArrayPosition(position) ? arrayTypes[position] : hashTypes[position - arrayTypes.length];
+    }
+
+    double numberAt(int position) {
+        return isArrayPosition(position) ? arrayNumbers[position] : hashNumbers[position - arrayTypes.length];
+    }
+
+    Object objectAt(int position) {
+        return isArrayPosition(position) ? arrayObjects[position] : hashObjects[position - arrayTypes.length];
+    }
+
+    void set(int position, byte type, double number, Object object) {
+        if (isArrayPosition(position)) {
+            arrayTypes[position] = type;
+            arrayNumbers[position] = number;
+            arrayObjects[position] = object;
+        } else {
+            int i = position - arrayTypes.length;
+            hashTypes[i] = type;
+            hashNumbers[i] = number;
+            hashObjects[i] = object;
+        }
+    }
+
+    // next position holding a non-nil value after the given one (-1 to start), -1 at the end
+    int nextPosition(int position) {
+        for (int i = position + 1; i < arraySize; i++) {
+            if (arrayTypes[i] != LuaState.NIL) {
+                return i;
+            }
+        }
+
+        for (int i = Math.max(position + 1, arrayTypes.length) - arrayTypes.length; i < keys.length; i++) {
+            if ((keys[i] != null) && (hashTypes[i] != LuaState.NIL)) {
+                return arrayTypes.length + i;
+            }
+        }
+        return -1;
+    }
+
+    // border of the array part, the # operator
+    int length() {
+        int n = arraySize;
+        while ((n > 0) && (arrayTypes[n - 1] == LuaState.NIL)) {
+            n--;
+        }
+        return n;
+    }
+
+    // empty the table, keeping its capacity
+    void clear() {
+        Arrays.fill(arrayTypes, 0, arraySize, LuaState.NIL);
+        Arrays.fill(arrayObjects, 0, arraySize, null);
+        arraySize = 0;
+        Arrays.fill(keys, null);
+        Arrays.fill(hashTypes, LuaState.NIL);
+        Arrays.fill(hashObjects, null);
+        keyCount = 0;
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        byte[] oldTypes = hashTypes;
+        double[] oldNumbers = hashNumbers;
+        Object[] oldObjects = hashObjects;
+
+        keys = new String[capacity];
+        hashTypes = new byte[capacity];
+        hashNumbers = new double[capacity];
+        hashObjects = new Object[capacity];
+        keyCount = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if ((oldKeys[i] != null) && (oldTypes[i] != LuaState.NIL)) {
+                set(positionForSet(oldKeys[i]), oldTypes[i], oldNumbers[i], oldObjects[i]);
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
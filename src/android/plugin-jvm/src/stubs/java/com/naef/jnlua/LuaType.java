@@ -0,0 +1,33 @@
+//
+// LuaType.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.naef.jnlua;
+
+/**
+ * JVM fake of the JNLua value types, in Lua type order.
+ */
+public enum LuaType {
+    NIL("nil"),
+    BOOLEAN("boolean"),
+    LIGHTUSERDATA("userdata"),
+    NUMBER("number"),
+    STRING("string"),
+    TABLE("table"),
+    FUNCTION("function"),
+    USERDATA("userdata"),
+    THREAD("thread");
+
+    private final String displayText;
+
+    LuaType(String displayText) {
+        this.displayText = displayText;
+    }
+
+    public String displayText() {
+        return displayText;
+    }
+}
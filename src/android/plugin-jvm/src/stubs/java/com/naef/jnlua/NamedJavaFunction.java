@@ -0,0 +1,15 @@
+//
+// NamedJavaFunction.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.naef.jnlua;
+
+/**
+ * JVM fake of the JNLua named Java function, registered as a module field by {@link LuaState#register}.
+ */
+public interface NamedJavaFunction extends JavaFunction {
+    String getName();
+}
@@ -0,0 +1,14 @@
+//
+// BasicCallback.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.tenjin.android;
+
+/**
+ * JVM fake of the Tenjin SDK callback base.
+ */
+public interface BasicCallback {
+}
@@ -0,0 +1,17 @@
+//
+// Callback.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.tenjin.android;
+
+import java.util.Map;
+
+/**
+ * JVM fake of the Tenjin SDK deep link callback.
+ */
+public interface Callback extends BasicCallback {
+    void onSuccess(boolean clickedTenjinLink, boolean isFirstSession, Map<String, String> data);
+}
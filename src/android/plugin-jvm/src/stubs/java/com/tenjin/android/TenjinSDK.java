@@ -0,0 +1,168 @@
+//
+// TenjinSDK.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package com.tenjin.android;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM fake of the Tenjin SDK: counts the calls the plugin makes instead of sending them, and
+ * answers deep link requests right away with {@link #setDeepLinkData(Map)}.
+ * <p>
+ * Only the methods the plugin calls are provided, with the signatures of libs/tenjin.jar.
+ */
+public class TenjinSDK {
+    /**
+     * Fake only: sees the events and purchases handed to the SDK, on the calling thread.
+     */
+    public interface Observer {
+        void onEvent(String name, int value, boolean hasValue);
+
+        void onTransaction(String productId, String currencyCode, int quantity, double unitPrice, String receipt, String signature);
+    }
+
+    private static TenjinSDK instance = null;
+    private static volatile Observer observer = null;
+    private static volatile Map<String, String> deepLinkData = defaultDeepLinkData();
+
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong transactionCount = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong deepLinkRequestCount = new AtomicLong();
+    private volatile int conversionValue = -1;
+    private volatile boolean optedIn = false;
+
+    private TenjinSDK() {
+    }
+
+    public static synchronized TenjinSDK getInstance(Context context, String apiKey) {
+        if ((context == null) || (apiKey == null)) {
+            throw new IllegalArgumentException("context and apiKey are required");
+        }
+        if (instance == null) {
+            instance = new TenjinSDK();
+        }
+        return instance;
+    }
+
+    public void optIn() {
+        optedIn = true;
+    }
+
+    public void optOut() {
+        optedIn = false;
+    }
+
+    public void optOutParams(String[] params) {
+    }
+
+    public void connect() {
+        connectCount.incrementAndGet();
+    }
+
+    public void updateConversionValue(int value) {
+        conversionValue = value;
+    }
+
+    public void eventWithName(String name) {
+        eventCount.incrementAndGet();
+        Observer current = observer;
+        if (current != null) {
+            current.onEvent(name, 0, false);
+        }
+    }
+
+    public void eventWithNameAndValue(String name, int value) {
+        eventCount.incrementAndGet();
+        Observer current = observer;
+        if (current != null) {
+            current.onEvent(name, value, true);
+        }
+    }
+
+    public void eventWithNameAndValue(String name, String value) {
+        eventWithNameAndValue(name, Integer.parseInt(value));
+    }
+
+    public void transaction(String productId, String currencyCode, int quantity, double unitPrice) {
+        transaction(productId, currencyCode, quantity, unitPrice, null, null);
+    }
+
+    public void transaction(String productId, String currencyCode, int quantity, double unitPrice, String purchaseData, String dataSignature) {
+        transactionCount.incrementAndGet();
+        Observer current = observer;
+        if (current != null) {
+            current.onTransaction(productId, currencyCode, quantity, unitPrice, purchaseData, dataSignature);
+        }
+    }
+
+    public void getDeeplink(Callback callback) {
+        deepLinkRequestCount.incrementAndGet();
+        callback.onSuccess(false, false, deepLinkData);
+    }
+
+    // -------------------------------------------------------
+    // fake only
+    // -------------------------------------------------------
+
+    // the instance returned by getInstance(), null if it was never called
+    public static synchronized TenjinSDK peekInstance() {
+        return instance;
+    }
+
+    public static void setObserver(Observer newObserver) {
+        observer = newObserver;
+    }
+
+    public static void setDeepLinkData(Map<String, String> data) {
+        deepLinkData = Collections.unmodifiableMap(new HashMap<>(data));
+    }
+
+    // forget the instance and the deep link data set
+    public static synchronized void reset() {
+        instance = null;
+        observer = null;
+        deepLinkData = defaultDeepLinkData();
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    public long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    public long getDeepLinkRequestCount() {
+        return deepLinkRequestCount.get();
+    }
+
+    // last value passed to updateConversionValue(), -1 if none
+    public int getConversionValue() {
+        return conversionValue;
+    }
+
+    public boolean isOptedIn() {
+        return optedIn;
+    }
+
+    private static Map<String, String> defaultDeepLinkData() {
+        Map<String, String> data = new HashMap<>();
+        data.put("ad_network", "organic");
+        data.put("advertising_id", "00000000-0000-0000-0000-000000000000");
+        return Collections.unmodifiableMap(data);
+    }
+}
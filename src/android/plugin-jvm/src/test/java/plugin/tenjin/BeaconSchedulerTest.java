@@ -0,0 +1,148 @@
+//
+// BeaconSchedulerTest.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import plugin.tenjin.jvm.CoronaHarness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The beacon is sent once per process, after the readiness delay and an idle main thread, on the main thread.
+ */
+public class BeaconSchedulerTest {
+    private CoronaHarness harness;
+    private Looper mainLooper;
+    private BeaconScheduler scheduler;
+
+    private int sendCount = 0;
+    private Thread sendThread = null;
+
+    private final Runnable send = new Runnable() {
+        @Override
+        public void run() {
+            sendThread = Thread.currentThread();
+            sendCount++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        // the test thread drives the main looper
+        harness = CoronaHarness.start();
+        mainLooper = Looper.getMainLooper();
+        mainLooper.idle();
+
+        scheduler = new BeaconScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        harness.exit();
+    }
+
+    // schedule() is called from init: it neither sends nor queues work that is due right away
+    @Test
+    public void notOnStartupPath() {
+        scheduler.schedule(send);
+
+        assertEquals(0, sendCount);
+        assertTrue(mainLooper.getQueue().isIdle());
+        mainLooper.idle();
+        assertEquals(0, sendCount);
+    }
+
+    @Test
+    public void sendsAfterReadyDelay() {
+        scheduler.schedule(send);
+
+        SystemClock.advance(BeaconScheduler.READY_DELAY / 2);
+        mainLooper.idle();
+        assertEquals(0, sendCount);
+
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+        assertEquals(1, sendCount);
+    }
+
+    // once the delay has passed, pending main thread work (frames, input) goes first
+    @Test
+    public void sendsOnlyWhenMainThreadIsIdle() {
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+
+        // a chain of busy messages, each posting the next one
+        final Handler mainHandler = new Handler(mainLooper);
+        final AtomicInteger busyCount = new AtomicInteger();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(0, sendCount);
+                if (busyCount.incrementAndGet() < 100) {
+                    mainHandler.post(this);
+                }
+            }
+        });
+
+        mainLooper.idle();
+        assertEquals(100, busyCount.get());
+        assertEquals(1, sendCount);
+    }
+
+    // CoronaBeacon is called on the main thread, as it was before the send was deferred
+    @Test
+    public void sendsOnMainThread() {
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+
+        assertEquals(1, sendCount);
+        assertSame(mainLooper.getThread(), sendThread);
+    }
+
+    @Test
+    public void sendsOncePerProcess() {
+        scheduler.schedule(send);
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+        assertEquals(1, sendCount);
+
+        // later inits (e.g. a new activity) don't send again
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+        assertEquals(1, sendCount);
+    }
+
+    // a send that could not be made is scheduled again by the next init
+    @Test
+    public void sendsAgainAfterReset() {
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+        assertEquals(1, sendCount);
+
+        scheduler.reset();
+        scheduler.schedule(send);
+        SystemClock.advance(BeaconScheduler.READY_DELAY);
+        mainLooper.idle();
+        assertEquals(2, sendCount);
+    }
+}
@@ -0,0 +1,91 @@
+//
+// DeepLinkCacheTest.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.tenjin.android.TenjinSDK;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import plugin.tenjin.jvm.CoronaHarness;
+import plugin.tenjin.jvm.RecordingListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Deep link results shared by tenjin.getDeepLink() calls.
+ */
+public class DeepLinkCacheTest {
+    // a request started before invalidate() is neither cached nor handed to the waiters
+    @Test
+    public void invalidateDropsRequestInProgress() {
+        DeepLinkCache cache = new DeepLinkCache();
+        Map<String, String> stale = Collections.singletonMap("link", "stale");
+        Map<String, String> fresh = Collections.singletonMap("link", "fresh");
+
+        assertTrue(cache.addWaiter(1));
+        int staleGeneration = cache.getGeneration();
+        cache.invalidate();
+        assertFalse(cache.addWaiter(2));
+
+        assertNull(cache.complete(staleGeneration, stale));
+        assertNull(cache.get());
+
+        assertEquals(Arrays.asList(1, 2), cache.complete(cache.getGeneration(), fresh));
+        assertSame(fresh, cache.get());
+    }
+
+    // a stale result nobody waits for is dropped and ends the request
+    @Test
+    public void staleResultWithoutWaiters() {
+        DeepLinkCache cache = new DeepLinkCache();
+        assertTrue(cache.startPrefetch());
+        int staleGeneration = cache.getGeneration();
+        cache.invalidate();
+
+        assertTrue(cache.complete(staleGeneration, Collections.singletonMap("link", "stale")).isEmpty());
+        assertNull(cache.get());
+        assertTrue(cache.addWaiter(1));
+    }
+
+    // listeners waiting when the runtime exits get an error event and their refs are released
+    @Test
+    public void exitAnswersWaitingListeners() {
+        TenjinSDK.reset();
+        CoronaHarness harness = CoronaHarness.start();
+        Map<String, Object> options = new HashMap<>();
+        options.put("apiKey", "test");
+        harness.init(new RecordingListener(), options);
+        harness.call("invalidateDeepLink");
+        int refCount = harness.getLuaState().getRefCount();
+
+        // the request is posted to the main looper, the runtime exits before the next frame runs it
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        harness.call("getDeepLink", first);
+        harness.call("getDeepLink", second);
+        harness.exit();
+
+        for (RecordingListener listener : Arrays.asList(first, second)) {
+            List<Map<Object, Object>> events = listener.getEvents();
+            assertEquals(1, events.size());
+            assertEquals(Boolean.TRUE, events.get(0).get("isError"));
+        }
+        assertTrue(harness.getLuaState().getRefCount() <= refCount);
+        TenjinSDK.reset();
+    }
+}
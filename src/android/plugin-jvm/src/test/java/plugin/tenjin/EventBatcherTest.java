@@ -0,0 +1,124 @@
+//
+// EventBatcherTest.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+import com.tenjin.android.TenjinSDK;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import plugin.tenjin.jvm.CoronaHarness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Events queued by tenjin.logEvent() on their way to the SDK.
+ */
+public class EventBatcherTest {
+    private static final int WARMUP_CALLS = 200000;
+    private static final int MEASURED_CALLS = 100000;
+
+    private CoronaHarness harness;
+    private LuaState L;
+    private long callbackCount = 0;
+
+    private final JavaFunction listener = new JavaFunction() {
+        @Override
+        public int invoke(LuaState L) {
+            callbackCount++;
+            return 0;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        TenjinSDK.reset();
+        harness = CoronaHarness.start();
+        L = harness.getLuaState();
+
+        Map<String, Object> options = new HashMap<>();
+        options.put("apiKey", "test");
+        harness.init(listener, options);
+        assertEquals(1, callbackCount);
+    }
+
+    @After
+    public void tearDown() {
+        harness.exit();
+        TenjinSDK.reset();
+    }
+
+    // more events in one frame than the ring holds at first: it grows and keeps them in order
+    @Test
+    public void burstKeepsOrder() {
+        final List<Integer> values = new ArrayList<>();
+        TenjinSDK.setObserver(new TenjinSDK.Observer() {
+            @Override
+            public void onEvent(String name, int value, boolean hasValue) {
+                values.add(value);
+            }
+
+            @Override
+            public void onTransaction(String productId, String currencyCode, int quantity, double unitPrice, String receipt, String signature) {
+            }
+        });
+
+        for (int i = 0; i < 1000; i++) {
+            harness.call("logEvent", "burst", i);
+        }
+        harness.runUntilIdle();
+
+        assertEquals(1000, values.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) values.get(i));
+        }
+    }
+
+    // once warmed up, a logEvent() call allocates nothing on its way to the SDK and back to the listener
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // Lua tables live on the Lua heap on a device, keep them out of the measurement
+        L.setTableRecycling(true);
+        harness.pushFunction("logEvent");
+        int logEvent = L.ref(LuaState.REGISTRYINDEX);
+        L.pushString("level_complete");
+        int eventName = L.ref(LuaState.REGISTRYINDEX);
+
+        logEvents(logEvent, eventName, WARMUP_CALLS);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        logEvents(logEvent, eventName, MEASURED_CALLS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(1 + WARMUP_CALLS + MEASURED_CALLS, callbackCount);
+        assertTrue("allocated " + allocated + " bytes in " + MEASURED_CALLS + " calls", allocated < MEASURED_CALLS / 10);
+    }
+
+    private void logEvents(int logEvent, int eventName, int count) {
+        for (int i = 0; i < count; i++) {
+            L.rawGet(LuaState.REGISTRYINDEX, logEvent);
+            L.rawGet(LuaState.REGISTRYINDEX, eventName);
+            L.call(1, 0);
+            harness.runFrame();
+        }
+    }
+}
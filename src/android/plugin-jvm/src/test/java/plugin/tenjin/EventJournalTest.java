@@ -0,0 +1,135 @@
+//
+// EventJournalTest.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import plugin.tenjin.jvm.CoronaHarness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records of the event journal across compactions.
+ */
+public class EventJournalTest {
+    // about 1 KB per record, 248 fill the 256 KB segment
+    private static final String PADDING = new String(new char[1000]).replace('\0', 'x');
+
+    private CoronaHarness harness;
+    private File directory;
+    private SdkExecutor executor;
+    private EventJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        harness = CoronaHarness.start();    // main looper for the executor
+        directory = Files.createTempDirectory("tenjin-journal").toFile();
+        executor = new SdkExecutor();
+        journal = EventJournal.open(directory, executor);
+        assertNotNull(journal);
+    }
+
+    @After
+    public void tearDown() {
+        harness.exit();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    // records appended and marked done while the worker compacts keep their state
+    @Test
+    public void compactionKeepsPendingRecords() throws InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            ids.add(journal.append(event(i)));
+        }
+
+        // done records past half the segment post a compaction, appends go on meanwhile
+        for (int i = 0; i < 130; i++) {
+            journal.markDone(ids.get(i));
+        }
+        for (int i = 150; i < 210; i++) {
+            ids.add(journal.append(event(i)));
+        }
+        journal.markDone(ids.get(140));
+        journal.markDone(ids.get(180));
+        awaitWorker();
+
+        // the index follows the compacted segment
+        journal.markDone(ids.get(145));
+        journal.markDone(ids.get(190));
+
+        List<PendingEvent> pending = journal.takePending();
+        List<Integer> values = new ArrayList<>();
+        for (PendingEvent event : pending) {
+            values.add((int) event.value);
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 130; i < 210; i++) {
+            if ((i != 140) && (i != 145) && (i != 180) && (i != 190)) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, values);
+    }
+
+    // a full segment skips the event instead of compacting on the caller's thread
+    @Test
+    public void fullSegmentSkipsEvents() throws InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        int id;
+        int i = 0;
+        while ((id = journal.append(event(i++))) >= 0) {
+            ids.add(id);
+        }
+        assertEquals(1, journal.getSkippedCount());
+
+        // done records are reclaimed in the background, then appends fit again
+        journal.markDone(ids.get(0));
+        journal.markDone(ids.get(1));
+        assertTrue(journal.append(event(i)) < 0);
+        assertEquals(2, journal.getSkippedCount());
+        awaitWorker();
+        assertTrue(journal.append(event(i)) >= 0);
+
+        assertEquals(ids.size() - 1, journal.takePending().size());
+    }
+
+    private static PendingEvent event(int value) {
+        return PendingEvent.standard("event_" + PADDING, value);
+    }
+
+    // wait for the tasks queued on the SDK worker so far
+    private void awaitWorker() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,143 @@
+//
+// ListenerRegistryTest.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+import com.tenjin.android.TenjinSDK;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import plugin.tenjin.jvm.CoronaHarness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak tests of the listener refs held for tenjin.getDeepLink() calls.
+ */
+public class ListenerRegistryTest {
+    private static final int CALLS = 100000;
+    private static final int CALLS_PER_FRAME = 100;
+
+    private CoronaHarness harness;
+    private LuaState L;
+    private int baseRefCount;
+    private int baseListenerRefs;   // the init listener
+    private long answerCount = 0;
+
+    private final JavaFunction answerCounter = new JavaFunction() {
+        @Override
+        public int invoke(LuaState L) {
+            answerCount++;
+            return 0;
+        }
+    };
+
+    private final JavaFunction initListener = new JavaFunction() {
+        @Override
+        public int invoke(LuaState L) {
+            return 0;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        TenjinSDK.reset();
+        harness = CoronaHarness.start();
+        L = harness.getLuaState();
+
+        Map<String, Object> options = new HashMap<>();
+        options.put("apiKey", "test");
+        harness.init(initListener, options);
+        baseRefCount = L.getRefCount();
+        baseListenerRefs = getListenerRefs();
+    }
+
+    @After
+    public void tearDown() {
+        harness.exit();
+        TenjinSDK.reset();
+    }
+
+    // the same listener again and again shares a single ref
+    @Test
+    public void sameListener() {
+        int maxRefs = soak(false, 0);
+
+        assertEquals(CALLS, answerCount);
+        assertEquals(baseListenerRefs + 1, maxRefs);
+        assertReleased();
+    }
+
+    // a new listener per call holds at most the refs of the calls waiting for their answer
+    @Test
+    public void newListenerPerCall() {
+        int maxRefs = soak(true, 0);
+
+        assertEquals(CALLS, answerCount);
+        assertTrue("max " + maxRefs + " refs", maxRefs <= baseListenerRefs + CALLS_PER_FRAME);
+        assertReleased();
+    }
+
+    // the cache is invalidated regularly, so calls also wait for SDK requests
+    @Test
+    public void newListenerPerCallWithRequests() {
+        int maxRefs = soak(true, 10);
+
+        assertEquals(CALLS, answerCount);
+        assertTrue("max " + maxRefs + " refs", maxRefs <= baseListenerRefs + CALLS_PER_FRAME);
+        assertEquals(CALLS / (CALLS_PER_FRAME * 10), TenjinSDK.peekInstance().getDeepLinkRequestCount());  // one per invalidation
+        assertReleased();
+    }
+
+    // CALLS getDeepLink() calls, CALLS_PER_FRAME per frame, returns the most listener refs seen after a frame
+    private int soak(boolean newListenerPerCall, int invalidateEveryFrames) {
+        int maxRefs = 0;
+        for (int frame = 0; frame < CALLS / CALLS_PER_FRAME; frame++) {
+            if ((invalidateEveryFrames > 0) && (frame % invalidateEveryFrames == 0)) {
+                harness.call("invalidateDeepLink");
+            }
+
+            for (int i = 0; i < CALLS_PER_FRAME; i++) {
+                harness.call("getDeepLink", newListenerPerCall ? newCounter() : answerCounter);
+            }
+            maxRefs = Math.max(maxRefs, getListenerRefs());
+            harness.runFrame();
+        }
+
+        harness.runUntilIdle();
+        return maxRefs;
+    }
+
+    private JavaFunction newCounter() {
+        return new JavaFunction() {
+            @Override
+            public int invoke(LuaState L) {
+                answerCount++;
+                return 0;
+            }
+        };
+    }
+
+    // every listener ref was deleted from the registry
+    private void assertReleased() {
+        assertEquals(baseListenerRefs, getListenerRefs());
+        assertEquals(baseRefCount, L.getRefCount());
+    }
+
+    private int getListenerRefs() {
+        Map<?, ?> stats = (Map<?, ?>) harness.call("getStats").get(0);
+        return ((Number) stats.get("listenerRefs")).intValue();
+    }
+}
@@ -0,0 +1,64 @@
+//
+// BeaconScheduler.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the Corona beacon once per process, off the startup path.
+ * <p>
+ * CoronaBeacon collects device info asynchronously, so the send waits for a readiness delay and then
+ * for the main thread to go idle (no pending frames, input or startup work). The send runs on the main
+ * thread, as CoronaBeacon expects.
+ */
+class BeaconScheduler {
+    // time (ms) CoronaBeacon needs to collect device info
+    static final long READY_DELAY = 2000;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private Handler mainHandler = null;
+
+    // schedule the send, ignored if a send is already scheduled or done in this process
+    void schedule(final Runnable send) {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        // runs on the main thread, idle handlers belong to the looper they are added from
+        final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                send.run();
+                return false; // one-shot
+            }
+        };
+
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(idleHandler);
+            }
+        }, READY_DELAY);
+    }
+
+    // the send could not be made, allow the next init to schedule it again
+    void reset() {
+        scheduled.set(false);
+    }
+
+    private synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+}
@@ -0,0 +1,195 @@
+//
+// CallbackQueue.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lua events waiting for the runtime to deliver them, optionally bounded.
+ * <p>
+ * When a bounded queue is full, the overflow policy decides what happens to a new event: the oldest
+ * pending event is dropped, the new event is merged into a pending event of the same kind (its count
+ * goes up), or the producer waits for room until a deadline and the new event is dropped if none
+ * was made. Producers on the Lua thread or the main thread never wait, they drop the oldest event instead.
+ */
+class CallbackQueue {
+    // overflow policies (init option "callbackQueuePolicy")
+    static final String POLICY_DROP_OLDEST = "dropOldest";
+    static final String POLICY_MERGE = "merge";
+    static final String POLICY_BLOCK = "block";
+
+    static final long DEFAULT_TIMEOUT = 100;
+
+    private final String mergePhase;
+    private final String countKey;
+
+    private final ArrayDeque<LuaEvent> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private volatile int capacity = 0;
+    private volatile String policy = POLICY_DROP_OLDEST;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile int size = 0;
+    private volatile int peakSize = 0;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    // mergePhase: phase of the events that can be merged, countKey: field holding the merged count
+    CallbackQueue(String mergePhase, String countKey) {
+        this.mergePhase = mergePhase;
+        this.countKey = countKey;
+    }
+
+    // capacity: max pending events (0 = unbounded), timeout: max wait (ms) of the block policy
+    void configure(int capacity, String policy, long timeout) {
+        this.capacity = Math.max(0, capacity);
+        this.policy = policy;
+        this.timeout = Math.max(0, timeout);
+    }
+
+    boolean isBounded() {
+        return capacity > 0;
+    }
+
+    // returns the event that has to be discarded (the oldest, the new or a merged one), or null
+    LuaEvent offer(LuaEvent event, boolean mayWait) {
+        lock.lock();
+        try {
+            int limit = capacity;
+            if ((limit > 0) && (queue.size() >= limit)) {
+                if (POLICY_MERGE.equals(policy) && merge(event)) {
+                    merged.incrementAndGet();
+                    return event;
+                }
+
+                if (POLICY_BLOCK.equals(policy) && mayWait) {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                    while ((queue.size() >= capacity) && (nanos > 0)) {
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    if (queue.size() >= capacity) {
+                        dropped.incrementAndGet();
+                        return event;
+                    }
+                } else {
+                    queue.addLast(event);
+                    dropped.incrementAndGet();
+                    return queue.pollFirst();
+                }
+            }
+
+            queue.addLast(event);
+            peakSize = Math.max(peakSize, queue.size());
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return event;
+        } finally {
+            size = queue.size();
+            lock.unlock();
+        }
+    }
+
+    // returns null when empty
+    LuaEvent poll() {
+        lock.lock();
+        try {
+            LuaEvent event = queue.pollFirst();
+            size = queue.size();
+            if (event != null) {
+                notFull.signal();
+            }
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // number of events up to and including the last one of the given type queued in or before the given round, 0 if none
+    int countThroughOverdue(String type, long round) {
+        lock.lock();
+        try {
+            int count = 0;
+            int result = 0;
+            for (LuaEvent event : queue) {
+                count++;
+                if ((event.queuedRound <= round) && type.equals(event.type)) {
+                    result = count;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getPeakSize() {
+        return peakSize;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getMergedCount() {
+        return merged.get();
+    }
+
+    // discard all pending events (runtime is exiting), the caller recycles them
+    void clear() {
+        lock.lock();
+        try {
+            queue.clear();
+            size = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // add the event's count to the newest pending event of the same kind (lock held)
+    private boolean merge(LuaEvent event) {
+        if (!isMergeable(event)) {
+            return false;
+        }
+
+        Iterator<LuaEvent> it = queue.descendingIterator();
+        while (it.hasNext()) {
+            LuaEvent pending = it.next();
+            if (isMergeable(pending) && (pending.listener == event.listener) && equal(pending.type, event.type)) {
+                int count = (pending.countKey != null) ? pending.count : 1;
+                pending.countKey = countKey;
+                pending.count = count + ((event.countKey != null) ? event.count : 1);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isMergeable(LuaEvent event) {
+        return mergePhase.equals(event.phase) && !event.isError && !event.releaseListener && (event.data == null)
+                && ((event.countKey == null) || countKey.equals(event.countKey));
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
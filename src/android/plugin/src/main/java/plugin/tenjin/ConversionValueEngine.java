@@ -0,0 +1,194 @@
+//
+// ConversionValueEngine.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives the conversion value from the logged events and purchases, using declarative rules.
+ * <p>
+ * A rule is met once an event has been logged a number of times, or once purchases in the rule's
+ * currency reach a revenue threshold, optionally within a time window counted from the first launch.
+ * The conversion value is the highest value of the rules met (it never goes down, explicit values
+ * included). Only the rules interested in an event are
+ * updated, so recording does not depend on the history length.
+ * <p>
+ * Progress is kept in a small memory-mapped file so it carries over launches. Progress is reset if
+ * the rules change.
+ */
+class ConversionValueEngine {
+    private static final String FILE_NAME = "tenjin_conversion.state";
+    static final int MAX_RULES = 64;
+    static final int MAX_VALUE = 63;
+
+    // file layout: [rules hash][first launch][value][sent value][MAX_RULES progress]
+    private static final int FIRST_LAUNCH_OFFSET = 4;
+    private static final int VALUE_OFFSET = 12;
+    private static final int SENT_VALUE_OFFSET = 16;
+    private static final int PROGRESS_OFFSET = 20;
+    private static final int FILE_SIZE = PROGRESS_OFFSET + MAX_RULES * 8;
+
+    /**
+     * A conversion value and the condition to reach it.
+     */
+    static class Rule {
+        final int value;
+        final String eventName;   // null for a revenue rule
+        final String currency;    // ISO 4217 code of a revenue rule (upper case), null for an event rule
+        final double threshold;   // occurrences or revenue
+        final long window;        // ms since the first launch, 0 = no limit
+
+        Rule(int value, String eventName, String currency, double threshold, long window) {
+            this.value = value;
+            this.eventName = eventName;
+            this.currency = currency;
+            this.threshold = threshold;
+            this.window = window;
+        }
+    }
+
+    private final ByteBuffer state;
+    private final Rule[] rules;
+    private final Map<String, int[]> eventRules = new HashMap<>();   // event name -> rule indices
+    private final int[] revenueRules;
+
+    private ConversionValueEngine(ByteBuffer state, List<Rule> ruleList) {
+        this.state = state;
+        this.rules = ruleList.toArray(new Rule[0]);
+
+        Map<String, List<Integer>> byEvent = new HashMap<>();
+        List<Integer> byRevenue = new ArrayList<>();
+        int hash = 17;
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            if (rule.eventName != null) {
+                if (!byEvent.containsKey(rule.eventName)) {
+                    byEvent.put(rule.eventName, new ArrayList<Integer>());
+                }
+                byEvent.get(rule.eventName).add(i);
+            } else {
+                byRevenue.add(i);
+            }
+            hash = 31 * hash + (rule.value + "|" + rule.eventName + "|" + rule.currency + "|" + rule.threshold + "|" + rule.window).hashCode();
+        }
+        for (Map.Entry<String, List<Integer>> entry : byEvent.entrySet()) {
+            eventRules.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        revenueRules = toArray(byRevenue);
+
+        // first launch, or rules changed since the state was saved
+        if ((state.getLong(FIRST_LAUNCH_OFFSET) == 0) || (state.getInt(0) != hash)) {
+            if (state.getLong(FIRST_LAUNCH_OFFSET) == 0) {
+                state.putLong(FIRST_LAUNCH_OFFSET, System.currentTimeMillis());
+            }
+            for (int i = 0; i < MAX_RULES; i++) {
+                state.putDouble(PROGRESS_OFFSET + i * 8, 0);
+            }
+            state.putInt(0, hash);
+        }
+    }
+
+    // map the state file, falls back to in-memory state (not kept across launches) if it can't be opened
+    static ConversionValueEngine open(File directory, List<Rule> rules) {
+        ByteBuffer state = null;
+        if (directory != null) {
+            try {
+                RandomAccessFile file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+                try {
+                    state = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                } finally {
+                    file.close(); // the mapping stays valid after the channel is closed
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        return new ConversionValueEngine((state != null) ? state : ByteBuffer.allocate(FILE_SIZE), rules);
+    }
+
+    // an event has been logged, returns true if the conversion value changed
+    synchronized boolean recordEvent(String eventName) {
+        int[] indices = eventRules.get(eventName);
+        return (indices != null) && advance(indices, null, 1);
+    }
+
+    // a purchase has been logged, only rules in its currency count it, returns true if the conversion value changed
+    synchronized boolean recordRevenue(String currency, double revenue) {
+        return (revenue > 0) && advance(revenueRules, currency, revenue);
+    }
+
+    // value set explicitly with updateConversionValue(), returns true if it was raised
+    synchronized boolean setValue(int value) {
+        if (value <= state.getInt(VALUE_OFFSET)) {
+            return false;
+        }
+        state.putInt(VALUE_OFFSET, value);
+        return true;
+    }
+
+    synchronized int getValue() {
+        return state.getInt(VALUE_OFFSET);
+    }
+
+    // the value the SDK does not have yet, or -1
+    synchronized int takeUnsentValue() {
+        int value = state.getInt(VALUE_OFFSET);
+        if (value == state.getInt(SENT_VALUE_OFFSET)) {
+            return -1;
+        }
+        state.putInt(SENT_VALUE_OFFSET, value);
+        return value;
+    }
+
+    // currency: only revenue rules in this currency are advanced (null for event rules)
+    private boolean advance(int[] indices, String currency, double amount) {
+        long age = System.currentTimeMillis() - state.getLong(FIRST_LAUNCH_OFFSET);
+        int value = state.getInt(VALUE_OFFSET);
+        int newValue = value;
+
+        for (int index : indices) {
+            Rule rule = rules[index];
+            if ((rule.value <= newValue) || ((rule.window > 0) && (age > rule.window))) {
+                continue; // can't raise the value
+            }
+            if ((rule.currency != null) && !rule.currency.equals(currency)) {
+                continue; // revenue in another currency
+            }
+
+            int offset = PROGRESS_OFFSET + index * 8;
+            double progress = state.getDouble(offset) + amount;
+            state.putDouble(offset, progress);
+            if (progress >= rule.threshold) {
+                newValue = rule.value;
+            }
+        }
+
+        if (newValue == value) {
+            return false;
+        }
+        state.putInt(VALUE_OFFSET, newValue);
+        return true;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,105 @@
+//
+// DeepLinkCache.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the deep link result for the session and makes concurrent requests share one SDK round trip.
+ * <p>
+ * Callers first try {@link #get()}. On a miss they register their listener with {@link #addWaiter(int)},
+ * and only the first waiter starts the SDK request. {@link #complete(int, Map)} stores the result and
+ * hands back every listener waiting for it. A request started before {@link #invalidate()} is stale:
+ * its result is neither cached nor handed out, the waiters get the result of a new request.
+ */
+class DeepLinkCache {
+    private Map<String, String> data = null;
+    private long fetchedAt = 0;
+    private long ttlMillis = 0;   // 0 = keep for the whole session
+    private boolean inFlight = false;
+    private int generation = 0;   // bumped by invalidate(), tells stale requests apart
+    private final List<Integer> waiters = new ArrayList<>();
+
+    synchronized void setTimeToLive(long ttlMillis) {
+        this.ttlMillis = Math.max(0, ttlMillis);
+    }
+
+    // returns the cached result, or null if there is none or it has expired
+    synchronized Map<String, String> get() {
+        if ((data != null) && (ttlMillis > 0) && (SystemClock.elapsedRealtime() - fetchedAt > ttlMillis)) {
+            data = null;
+        }
+
+        return data;
+    }
+
+    // returns true if the caller must start the SDK request
+    synchronized boolean addWaiter(int listener) {
+        waiters.add(listener);
+
+        if (inFlight) {
+            return false;
+        }
+
+        inFlight = true;
+        return true;
+    }
+
+    // returns true if the caller must start a prefetch (nothing cached and no request in progress)
+    synchronized boolean startPrefetch() {
+        if ((get() != null) || inFlight) {
+            return false;
+        }
+
+        inFlight = true;
+        return true;
+    }
+
+    // generation to pass to complete(), read when the SDK request is made
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    // store the result of a request made at the given generation and return the listeners waiting for it,
+    // or null if the cache was invalidated since: the result is dropped and the caller must request again
+    synchronized List<Integer> complete(int requestGeneration, Map<String, String> result) {
+        if (requestGeneration != generation) {
+            if (waiters.isEmpty()) {
+                inFlight = false;
+                return new ArrayList<>();
+            }
+            return null;
+        }
+
+        data = result;
+        fetchedAt = SystemClock.elapsedRealtime();
+        return takeWaiters();
+    }
+
+    // the request could not be made or the runtime is exiting, return the listeners waiting for it
+    synchronized List<Integer> fail() {
+        return takeWaiters();
+    }
+
+    // drop the cached result and any request in progress, the next result comes from a new SDK request
+    synchronized void invalidate() {
+        data = null;
+        generation++;
+    }
+
+    private List<Integer> takeWaiters() {
+        List<Integer> result = new ArrayList<>(waiters);
+        waiters.clear();
+        inFlight = false;
+        return result;
+    }
+}
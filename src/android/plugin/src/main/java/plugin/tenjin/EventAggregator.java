@@ -0,0 +1,161 @@
+//
+// EventAggregator.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Accumulates high-frequency logEvent() calls into one event per name and window.
+ * <p>
+ * Each aggregated name owns a slot in primitive count/sum arrays, so adding an occurrence does not
+ * allocate. A window ends when its interval expires, when it holds the configured number of
+ * occurrences, or on {@link #flush()}. The flush hands a single bulk event to the sink, holding one
+ * standard event per name whose value is the sum of the values logged (or the number of occurrences
+ * if none of them had a value).
+ */
+class EventAggregator {
+    /**
+     * Receives the aggregated events of a window, on the SDK executor.
+     */
+    interface Sink {
+        void send(PendingEvent event);
+    }
+
+    static final long DEFAULT_INTERVAL = 30000;
+
+    private final Sink sink;
+    private final SdkExecutor executor;
+    private final AtomicBoolean flushPosted = new AtomicBoolean();
+    private final AtomicBoolean timerPosted = new AtomicBoolean();
+
+    // slots (guarded by this)
+    private Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[0];
+    private long[] counts = new long[0];
+    private long[] valueCounts = new long[0];
+    private double[] sums = new double[0];
+    private int size = 0;
+
+    private volatile long interval = DEFAULT_INTERVAL;
+    private volatile int maxSize = 0;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            // re-arm before draining so late adds are never stranded
+            flushPosted.set(false);
+            timerPosted.set(false);
+
+            PendingEvent event = takeWindow();
+            if (event != null) {
+                sink.send(event);
+            }
+        }
+    };
+
+    EventAggregator(SdkExecutor executor, Sink sink) {
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    // names: events to aggregate, interval: window length (ms), maxSize: occurrences ending a window (0 = no limit)
+    synchronized void configure(List<String> eventNames, long interval, int maxSize) {
+        this.interval = (interval > 0) ? interval : DEFAULT_INTERVAL;
+        this.maxSize = Math.max(0, maxSize);
+
+        slots = new HashMap<>();
+        for (String name : eventNames) {
+            if (!slots.containsKey(name)) {
+                slots.put(name, slots.size());
+            }
+        }
+
+        names = new String[slots.size()];
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        counts = new long[names.length];
+        valueCounts = new long[names.length];
+        sums = new double[names.length];
+        size = 0;
+    }
+
+    // returns false if the event name is not aggregated (Lua thread)
+    boolean add(String name, double value, boolean hasValue) {
+        int windowSize;
+
+        synchronized (this) {
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                return false;
+            }
+
+            counts[slot]++;
+            if (hasValue) {
+                valueCounts[slot]++;
+                sums[slot] += value;
+            }
+            windowSize = ++size;
+        }
+
+        if ((maxSize > 0) && (windowSize >= maxSize)) {
+            if (flushPosted.compareAndSet(false, true)) {
+                executor.execute(flushTask);
+            }
+        } else if (timerPosted.compareAndSet(false, true)) {
+            executor.schedule(flushTask, interval);
+        }
+
+        return true;
+    }
+
+    // post a flush for the current window, regardless of its size and age
+    void flush() {
+        if ((size() > 0) && flushPosted.compareAndSet(false, true)) {
+            executor.execute(flushTask);
+        }
+    }
+
+    // number of occurrences in the current window
+    synchronized int size() {
+        return size;
+    }
+
+    // drop the current window and all aggregated names
+    synchronized void clear() {
+        configure(new ArrayList<String>(), DEFAULT_INTERVAL, 0);
+        flushPosted.set(false);
+        timerPosted.set(false);
+    }
+
+    // end the current window without sending it, returns null if it is empty
+    synchronized PendingEvent takeWindow() {
+        if (size == 0) {
+            return null;
+        }
+
+        List<PendingEvent> events = new ArrayList<>();
+        for (int slot = 0; slot < names.length; slot++) {
+            if (counts[slot] > 0) {
+                double value = (valueCounts[slot] > 0) ? sums[slot] : counts[slot];
+                events.add(PendingEvent.standard(names[slot], value));
+
+                counts[slot] = 0;
+                valueCounts[slot] = 0;
+                sums[slot] = 0;
+            }
+        }
+        size = 0;
+
+        return PendingEvent.bulk(events);
+    }
+}
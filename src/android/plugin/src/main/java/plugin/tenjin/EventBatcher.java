@@ -0,0 +1,136 @@
+//
+// EventBatcher.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects pending events from the Lua thread and hands them to the SDK in a single executor hop.
+ * <p>
+ * A flush is posted once the batch reaches the configured size. When a flush interval is set, smaller
+ * batches are held back until the interval expires. Events added while a flush is already posted
+ * ride along with it, so a burst of calls within one frame costs a single task on the SDK executor.
+ * <p>
+ * Events wait in a preallocated ring, so queuing one does not allocate. The ring only grows (by
+ * doubling) when a burst outruns the SDK executor, and keeps its size afterwards.
+ */
+class EventBatcher {
+    /**
+     * Receives every event of a batch, on the SDK executor.
+     */
+    interface Sink {
+        void send(PendingEvent event);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Sink sink;
+    private final SdkExecutor executor;
+
+    // queued events, guarded by this
+    private PendingEvent[] slots = new PendingEvent[INITIAL_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+
+    private final AtomicBoolean flushPosted = new AtomicBoolean();
+    private final AtomicBoolean timerPosted = new AtomicBoolean();
+
+    private volatile int batchSize = 1;
+    private volatile long flushInterval = 0;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            // re-arm before draining so late adds are never stranded
+            // (a stale timer firing later only causes an early flush)
+            flushPosted.set(false);
+            timerPosted.set(false);
+
+            PendingEvent event;
+            while ((event = poll()) != null) {
+                sink.send(event);
+            }
+        }
+    };
+
+    EventBatcher(SdkExecutor executor, Sink sink) {
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    // batchSize: number of events that triggers a flush (minimum 1)
+    // flushInterval: max time (ms) a smaller batch is held back (0 = flush right away)
+    void configure(int batchSize, long flushInterval) {
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(0, flushInterval);
+    }
+
+    void add(PendingEvent event) {
+        int count = offer(event);
+
+        if ((count >= batchSize) || (flushInterval == 0)) {
+            if (flushPosted.compareAndSet(false, true)) {
+                executor.execute(flushTask);
+            }
+        } else if (timerPosted.compareAndSet(false, true)) {
+            executor.schedule(flushTask, flushInterval);
+        }
+    }
+
+    // post a flush for whatever is queued, regardless of thresholds
+    void flush() {
+        if ((size() > 0) && flushPosted.compareAndSet(false, true)) {
+            executor.execute(flushTask);
+        }
+    }
+
+    // number of queued events
+    synchronized int size() {
+        return count;
+    }
+
+    // take all queued events out without sending them, each one is handed to the given sink
+    void clear(Sink discarded) {
+        PendingEvent event;
+        while ((event = poll()) != null) {
+            discarded.send(event);
+        }
+        flushPosted.set(false);
+        timerPosted.set(false);
+    }
+
+    // queue an event, returns the number of queued events
+    private synchronized int offer(PendingEvent event) {
+        if (count == slots.length) {
+            // the ring is full, unroll it into one twice as large
+            PendingEvent[] resized = new PendingEvent[slots.length * 2];
+            for (int i = 0; i < count; i++) {
+                resized[i] = slots[(head + i) % slots.length];
+            }
+            slots = resized;
+            head = 0;
+        }
+
+        slots[(head + count) % slots.length] = event;
+        count++;
+        return count;
+    }
+
+    // returns null when empty
+    private synchronized PendingEvent poll() {
+        if (count == 0) {
+            return null;
+        }
+
+        PendingEvent event = slots[head];
+        slots[head] = null;
+        head = (head + 1) % slots.length;
+        count--;
+        return event;
+    }
+}
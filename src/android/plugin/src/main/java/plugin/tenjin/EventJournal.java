@@ -0,0 +1,407 @@
+//
+// EventJournal.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only journal of events that have not been handed to the Tenjin SDK yet.
+ * <p>
+ * Records live in a memory-mapped segment file, so an append is a few buffer writes and the data
+ * survives the process being killed. Each record is [state byte][payload length][id][payload]. The
+ * state byte is written last and acts as the commit marker; a zero state byte marks the end of the
+ * journal. Callers refer to records by id, since compaction moves them.
+ * <p>
+ * Records are marked done once the SDK has the event, or once the event is discarded. Records of
+ * events the runtime could not send before exiting are abandoned: they stay pending and are replayed
+ * by the next init. The segment is reset as soon as nothing is pending. Otherwise, once half of it
+ * holds done records, the pending ones are copied to a fresh segment on the SDK worker, which then
+ * atomically replaces the journal file. The bulk copy and its flush run without the lock, appends
+ * go on meanwhile and are carried over before the swap. When the segment is full, an event is not
+ * journaled (and counted) rather than waiting for a compaction. Pending records are replayed on the
+ * next launch.
+ */
+class EventJournal {
+    private static final String FILE_NAME = "tenjin_events.journal";
+    private static final String COMPACT_FILE_NAME = FILE_NAME + ".compact";
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int HEADER_SIZE = 9;   // state + length + id
+
+    // record states
+    private static final byte STATE_END = 0;
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_DONE = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final SdkExecutor executor;
+    private MappedByteBuffer buffer;
+    private int writePosition = 0;
+    private int pendingCount = 0;
+    private int doneBytes = 0;      // space held by done records
+    private int nextId = 0;
+    private boolean compactionPosted = false;
+    private int segmentVersion = 0;     // changes when the segment is reset or replaced
+    private long skippedCount = 0;      // events not journaled because the segment was full
+
+    // records of the segment in id order (done records are dropped by compaction)
+    private int recordCount = 0;
+    private int[] recordIds = new int[64];
+    private int[] recordOffsets = new int[64];
+    private boolean[] recordAbandoned = new boolean[64];
+
+    private final Runnable compactTask = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    private EventJournal(File directory, MappedByteBuffer buffer, SdkExecutor executor) {
+        this.directory = directory;
+        this.buffer = buffer;
+        this.executor = executor;
+    }
+
+    // map the journal file, returns null if it can't be opened
+    static EventJournal open(File directory, SdkExecutor executor) {
+        MappedByteBuffer buffer = map(new File(directory, FILE_NAME));
+        return (buffer != null) ? new EventJournal(directory, buffer, executor) : null;
+    }
+
+    private static MappedByteBuffer map(File path) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            } finally {
+                file.close(); // the mapping stays valid after the channel is closed
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    // journal an event (Lua thread), returns the record id or -1 if the segment is full
+    synchronized int append(PendingEvent event) {
+        byte[] name = encode(event.name);
+        byte[] productId = encode(event.productId);
+        byte[] currencyCode = encode(event.currencyCode);
+        byte[] receipt = encode(event.receipt);
+        byte[] signature = encode(event.signature);
+
+        int length = 1 + 8 + 4 + 8 + 5 * 4 + size(name) + size(productId) + size(currencyCode) + size(receipt) + size(signature);
+        int offset = writePosition;
+        if (offset + HEADER_SIZE + length + 1 > SEGMENT_SIZE) {
+            // never compact on the caller's thread, done records are reclaimed in the background
+            skippedCount++;
+            postCompaction();
+            return -1;
+        }
+
+        int id = nextId;
+        nextId = (nextId + 1) & Integer.MAX_VALUE;
+
+        buffer.position(offset + 1);
+        buffer.putInt(length);
+        buffer.putInt(id);
+        buffer.put((byte) event.kind);
+        buffer.putDouble(event.value);
+        buffer.putInt(event.quantity);
+        buffer.putDouble(event.unitPrice);
+        put(name);
+        put(productId);
+        put(currencyCode);
+        put(receipt);
+        put(signature);
+        buffer.put(STATE_END);               // terminate the journal after this record
+        buffer.put(offset, STATE_PENDING);   // commit
+
+        addRecord(id, offset);
+        writePosition = offset + HEADER_SIZE + length;
+        pendingCount++;
+        return id;
+    }
+
+    // the SDK has the event or it was discarded, its record no longer needs replaying
+    synchronized void markDone(int id) {
+        int index = indexOf(id);
+        if ((index < 0) || (buffer.get(recordOffsets[index]) != STATE_PENDING)) {
+            return;
+        }
+
+        int offset = recordOffsets[index];
+        buffer.put(offset, STATE_DONE);
+        recordAbandoned[index] = false;
+        doneBytes += HEADER_SIZE + buffer.getInt(offset + 1);
+        pendingCount--;
+
+        if (pendingCount == 0) {
+            reset();
+        } else if (doneBytes >= SEGMENT_SIZE / 2) {
+            postCompaction();
+        }
+    }
+
+    // number of events that were not journaled because the segment was full
+    synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    // lock held
+    private void postCompaction() {
+        if ((doneBytes > 0) && !compactionPosted) {
+            compactionPosted = true;
+            executor.executeInBackground(compactTask);
+        }
+    }
+
+    // the event could not be sent before the runtime exited, its record is replayed by the next init
+    synchronized void abandon(int id) {
+        int index = indexOf(id);
+        if ((index >= 0) && (buffer.get(recordOffsets[index]) == STATE_PENDING)) {
+            recordAbandoned[index] = true;
+        }
+    }
+
+    // read back the records abandoned by a previous runtime of this process, the events keep their records
+    synchronized List<PendingEvent> takeAbandoned() {
+        List<PendingEvent> events = new ArrayList<>();
+
+        for (int i = 0; i < recordCount; i++) {
+            if (recordAbandoned[i]) {
+                recordAbandoned[i] = false;
+                buffer.position(recordOffsets[i] + HEADER_SIZE);
+                PendingEvent event = readEvent();
+                event.journalId = recordIds[i];
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    // read back all pending records and start a fresh segment, the caller re-journals what it replays
+    synchronized List<PendingEvent> takePending() {
+        List<PendingEvent> events = new ArrayList<>();
+
+        int offset = 0;
+        while (offset + HEADER_SIZE <= SEGMENT_SIZE) {
+            byte state = buffer.get(offset);
+            int length = buffer.getInt(offset + 1);
+            if ((state == STATE_END) || (length <= 0) || (offset + HEADER_SIZE + length > SEGMENT_SIZE)) {
+                break;
+            }
+
+            if (state == STATE_PENDING) {
+                buffer.position(offset + HEADER_SIZE);
+                events.add(readEvent());
+            }
+            offset += HEADER_SIZE + length;
+        }
+
+        reset();
+        return events;
+    }
+
+    // copy the pending records to a fresh segment that replaces the journal file (SDK worker thread)
+    private void compact() {
+        // snapshot the pending records
+        MappedByteBuffer source;
+        int version;
+        int snapshotEnd;
+        int count = 0;
+        int[] offsets;
+        int[] sizes;
+        synchronized (this) {
+            compactionPosted = false;
+            if ((pendingCount == 0) || (doneBytes == 0)) {
+                return;
+            }
+
+            source = buffer;
+            version = segmentVersion;
+            snapshotEnd = writePosition;
+            offsets = new int[recordCount];
+            sizes = new int[recordCount];
+            for (int i = 0; i < recordCount; i++) {
+                int offset = recordOffsets[i];
+                if (buffer.get(offset) == STATE_PENDING) {
+                    offsets[count] = offset;
+                    sizes[count] = HEADER_SIZE + buffer.getInt(offset + 1);
+                    count++;
+                }
+            }
+        }
+
+        // bulk copy and flush without the lock (records never move in a segment, only their state byte changes)
+        File compacted = new File(directory, COMPACT_FILE_NAME);
+        MappedByteBuffer target = map(compacted);
+        if (target == null) {
+            return;
+        }
+
+        int position = 0;
+        int[] copiedOffsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            copiedOffsets[i] = position;
+            position = copy(source, offsets[i], sizes[i], target, position);
+        }
+        target.put(position, STATE_END);
+        target.force();
+
+        synchronized (this) {
+            if (version != segmentVersion) {
+                // reset meanwhile (nothing pending anymore), the copy is stale
+                compacted.delete();
+                return;
+            }
+
+            // new index: state changes since the snapshot, then the records appended meanwhile
+            int[] ids = new int[Math.max(64, recordIds.length)];
+            int[] newOffsets = new int[ids.length];
+            boolean[] abandoned = new boolean[ids.length];
+            int newCount = 0;
+            int newDoneBytes = 0;
+            int copied = 0;
+            for (int i = 0; i < recordCount; i++) {
+                int offset = recordOffsets[i];
+                int newOffset;
+                if (offset < snapshotEnd) {
+                    if ((copied == count) || (offsets[copied] != offset)) {
+                        continue; // was done at the snapshot
+                    }
+                    newOffset = copiedOffsets[copied++];
+                    byte state = buffer.get(offset);
+                    target.put(newOffset, state);
+                    if (state == STATE_DONE) {
+                        newDoneBytes += HEADER_SIZE + buffer.getInt(offset + 1);
+                    }
+                } else {
+                    newOffset = position;
+                    position = copy(buffer, offset, HEADER_SIZE + buffer.getInt(offset + 1), target, position);
+                    target.put(position, STATE_END);
+                }
+
+                ids[newCount] = recordIds[i];
+                newOffsets[newCount] = newOffset;
+                abandoned[newCount] = recordAbandoned[i];
+                newCount++;
+            }
+
+            // the journal file is either the old or the compacted segment, even if the process is killed here
+            if (!compacted.renameTo(new File(directory, FILE_NAME))) {
+                return; // keep using the old segment and its index
+            }
+
+            buffer = target;
+            recordIds = ids;
+            recordOffsets = newOffsets;
+            recordAbandoned = abandoned;
+            recordCount = newCount;
+            writePosition = position;
+            doneBytes = newDoneBytes;
+            segmentVersion++;
+        }
+    }
+
+    // copy a record between segments, returns the position after it in the target
+    private static int copy(MappedByteBuffer source, int offset, int size, MappedByteBuffer target, int position) {
+        ByteBuffer record = source.duplicate();
+        record.limit(offset + size);
+        record.position(offset);
+        ByteBuffer destination = target.duplicate();
+        destination.position(position);
+        destination.put(record);
+        return position + size;
+    }
+
+    private void reset() {
+        buffer.put(0, STATE_END);
+        segmentVersion++;
+        writePosition = 0;
+        pendingCount = 0;
+        doneBytes = 0;
+        recordCount = 0;
+    }
+
+    private void addRecord(int id, int offset) {
+        if (recordCount == recordIds.length) {
+            recordIds = Arrays.copyOf(recordIds, recordCount * 2);
+            recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+            recordAbandoned = Arrays.copyOf(recordAbandoned, recordCount * 2);
+        }
+
+        recordIds[recordCount] = id;
+        recordOffsets[recordCount] = offset;
+        recordAbandoned[recordCount] = false;
+        recordCount++;
+    }
+
+    // records are kept in id order (ids only wrap after 2^31 appends)
+    private int indexOf(int id) {
+        return (id >= 0) ? Arrays.binarySearch(recordIds, 0, recordCount, id) : -1;
+    }
+
+    private PendingEvent readEvent() {
+        int kind = buffer.get();
+        double value = buffer.getDouble();
+        int quantity = buffer.getInt();
+        double unitPrice = buffer.getDouble();
+        String name = getString();
+        String productId = getString();
+        String currencyCode = getString();
+        String receipt = getString();
+        String signature = getString();
+
+        if (kind == PendingEvent.KIND_PURCHASE) {
+            return PendingEvent.purchase(productId, currencyCode, quantity, unitPrice, receipt, signature);
+        }
+        return PendingEvent.standard(name, value);
+    }
+
+    private static byte[] encode(String value) {
+        return (value != null) ? value.getBytes(UTF8) : null;
+    }
+
+    private static int size(byte[] bytes) {
+        return (bytes != null) ? bytes.length : 0;
+    }
+
+    // strings are stored as [length][UTF-8 bytes], length -1 for null
+    private void put(byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private String getString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
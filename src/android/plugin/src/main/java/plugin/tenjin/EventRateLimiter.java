@@ -0,0 +1,135 @@
+//
+// EventRateLimiter.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limits and sampling for logEvent(), globally and per event name.
+ * <p>
+ * Buckets use the generic cell rate algorithm: each one is a single "theoretical arrival time"
+ * updated with compare-and-set, so a check neither locks nor allocates.
+ */
+class EventRateLimiter {
+    // policy key for the limit shared by all events (init option "rateLimits")
+    static final String GLOBAL_KEY = "*";
+
+    /**
+     * Limits for one event name (or for all events).
+     */
+    static class Policy {
+        final double rate;          // events per second, 0 = unlimited
+        final int burst;            // events allowed at once
+        final double sampleRate;    // fraction of events kept, 1 = all
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong arrivalTime = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        Policy(double rate, int burst, double sampleRate) {
+            this.rate = Math.max(0, rate);
+            this.burst = Math.max(1, burst);
+            this.sampleRate = Math.min(1, Math.max(0, sampleRate));
+            this.interval = (this.rate > 0) ? (long) (1e9 / this.rate) : 0;
+            this.tolerance = this.interval * (this.burst - 1);
+        }
+
+        // returns true if the event may be sent
+        boolean tryAcquire(long now) {
+            if ((sampleRate < 1) && (Math.random() >= sampleRate)) {
+                return false;
+            }
+
+            if (interval == 0) {
+                return true;
+            }
+
+            while (true) {
+                long arrival = arrivalTime.get();
+                long next = Math.max(arrival, now);
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (arrivalTime.compareAndSet(arrival, next + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private volatile Policy globalPolicy = null;
+    private volatile Map<String, Policy> eventPolicies = new HashMap<>();
+    private final AtomicLong totalSuppressed = new AtomicLong();
+
+    // policies: event name (or GLOBAL_KEY) -> policy, replaces the current policies
+    void configure(Map<String, Policy> policies) {
+        Map<String, Policy> copy = new HashMap<>(policies);
+        globalPolicy = copy.remove(GLOBAL_KEY);
+        eventPolicies = copy;
+    }
+
+    void clear() {
+        globalPolicy = null;
+        eventPolicies = new HashMap<>();
+        totalSuppressed.set(0);
+    }
+
+    // returns true if the event may be sent, counts it as suppressed otherwise (Lua thread)
+    boolean allow(String eventName) {
+        Policy global = globalPolicy;
+        Policy policy = eventPolicies.get(eventName);
+        if ((global == null) && (policy == null)) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if ((policy != null) && !policy.tryAcquire(now)) {
+            policy.suppressed.incrementAndGet();
+            totalSuppressed.incrementAndGet();
+            return false;
+        }
+        if ((global != null) && !global.tryAcquire(now)) {
+            if (policy != null) {
+                policy.suppressed.incrementAndGet();
+            }
+            global.suppressed.incrementAndGet();
+            totalSuppressed.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    long getTotalSuppressed() {
+        return totalSuppressed.get();
+    }
+
+    // suppressed counts since the last call, per event name (GLOBAL_KEY for the global limit), empty if none
+    Map<String, String> takeSuppressedCounts() {
+        Map<String, String> counts = new HashMap<>();
+
+        for (Map.Entry<String, Policy> entry : eventPolicies.entrySet()) {
+            long count = entry.getValue().suppressed.getAndSet(0);
+            if (count > 0) {
+                counts.put(entry.getKey(), Long.toString(count));
+            }
+        }
+
+        Policy global = globalPolicy;
+        if (global != null) {
+            long count = global.suppressed.getAndSet(0);
+            if (count > 0) {
+                counts.put(GLOBAL_KEY, Long.toString(count));
+            }
+        }
+
+        return counts;
+    }
+}
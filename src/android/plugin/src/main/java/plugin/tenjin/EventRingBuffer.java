@@ -0,0 +1,119 @@
+//
+// EventRingBuffer.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded FIFO holding events logged before the Tenjin SDK instance is available.
+ * <p>
+ * When full, either the oldest event is overwritten or the new one is rejected, depending on the
+ * overflow policy. Dropped events are counted so they can be reported once the buffer is replayed.
+ */
+class EventRingBuffer {
+    // overflow policies (init option "preInitOverflow")
+    static final String OVERFLOW_DROP_OLDEST = "dropOldest";
+    static final String OVERFLOW_DROP_NEWEST = "dropNewest";
+
+    static final int DEFAULT_CAPACITY = 32;
+
+    private PendingEvent[] slots = new PendingEvent[DEFAULT_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+    private boolean dropOldest = true;
+    private int dropped = 0;
+
+    // resize the buffer, keeping as many of the buffered events as the overflow policy allows
+    // returns the events that no longer fit
+    synchronized List<PendingEvent> configure(int capacity, String overflow) {
+        dropOldest = !OVERFLOW_DROP_NEWEST.equals(overflow);
+        capacity = Math.max(0, capacity);
+
+        List<PendingEvent> droppedEvents = new ArrayList<>();
+        if (capacity == slots.length) {
+            return droppedEvents;
+        }
+
+        PendingEvent[] resized = new PendingEvent[capacity];
+        int keep = Math.min(count, capacity);
+        int skip = dropOldest ? (count - keep) : 0;
+        for (int i = 0; i < count; i++) {
+            PendingEvent event = slots[(head + i) % slots.length];
+            if ((i >= skip) && (i < skip + keep)) {
+                resized[i - skip] = event;
+            } else {
+                droppedEvents.add(event);
+            }
+        }
+
+        dropped += count - keep;
+        slots = resized;
+        head = 0;
+        count = keep;
+        return droppedEvents;
+    }
+
+    // returns the event that had to be dropped to respect the capacity (the oldest or the new one), or null
+    synchronized PendingEvent add(PendingEvent event) {
+        if (slots.length == 0) {
+            dropped++;
+            return event;
+        }
+
+        if (count == slots.length) {
+            dropped++;
+            if (!dropOldest) {
+                return event;
+            }
+
+            // overwrite the oldest event
+            PendingEvent oldest = slots[head];
+            slots[head] = event;
+            head = (head + 1) % slots.length;
+            return oldest;
+        }
+
+        slots[(head + count) % slots.length] = event;
+        count++;
+        return null;
+    }
+
+    // returns null when empty
+    synchronized PendingEvent poll() {
+        if (count == 0) {
+            return null;
+        }
+
+        PendingEvent event = slots[head];
+        slots[head] = null;
+        head = (head + 1) % slots.length;
+        count--;
+        return event;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    // number of events dropped since the last call
+    synchronized int takeDroppedCount() {
+        int result = dropped;
+        dropped = 0;
+        return result;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        head = 0;
+        count = 0;
+        dropped = 0;
+    }
+}
@@ -0,0 +1,99 @@
+//
+// ListenerRegistry.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.ansca.corona.CoronaLua;
+
+import com.naef.jnlua.LuaState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reference counted Lua registry refs for listeners.
+ * <p>
+ * Passing the same listener again reuses its ref instead of creating a new one, and a ref is deleted
+ * once every acquire has been released. Releases from other threads (e.g. an event that could not be
+ * delivered) are deferred to the next call made on the Lua thread.
+ */
+class ListenerRegistry {
+    private final List<int[]> entries = new ArrayList<>();    // { ref, count } (Lua thread only)
+    private final ConcurrentLinkedQueue<Integer> deferredReleases = new ConcurrentLinkedQueue<>();
+    private volatile int liveRefs = 0;
+
+    // ref for the listener at the given (absolute) stack index (Lua thread)
+    int acquire(LuaState L, int index) {
+        drainDeferred(L);
+
+        for (int[] entry : entries) {
+            L.rawGet(LuaState.REGISTRYINDEX, entry[0]);
+            boolean same = L.rawEqual(-1, index);
+            L.pop(1);
+
+            if (same) {
+                entry[1]++;
+                return entry[0];
+            }
+        }
+
+        int ref = CoronaLua.newRef(L, index);
+        entries.add(new int[]{ref, 1});
+        liveRefs = entries.size();
+        return ref;
+    }
+
+    // release a ref returned by acquire() (Lua thread)
+    void release(LuaState L, int ref) {
+        drainDeferred(L);
+        releaseRef(L, ref);
+    }
+
+    // release a ref from any thread, applied on the next Lua thread call
+    void releaseLater(int ref) {
+        if (ref != CoronaLua.REFNIL) {
+            deferredReleases.offer(ref);
+        }
+    }
+
+    // number of refs currently held in the Lua registry
+    int getLiveRefCount() {
+        return liveRefs;
+    }
+
+    // delete all refs (runtime is exiting)
+    void clear(LuaState L) {
+        deferredReleases.clear();
+        for (int[] entry : entries) {
+            CoronaLua.deleteRef(L, entry[0]);
+        }
+        entries.clear();
+        liveRefs = 0;
+    }
+
+    private void drainDeferred(LuaState L) {
+        Integer ref;
+        while ((ref = deferredReleases.poll()) != null) {
+            releaseRef(L, ref);
+        }
+    }
+
+    private void releaseRef(LuaState L, int ref) {
+        for (int i = 0; i < entries.size(); i++) {
+            int[] entry = entries.get(i);
+            if (entry[0] == ref) {
+                if (--entry[1] == 0) {
+                    CoronaLua.deleteRef(L, ref);
+                    entries.remove(i);
+                    liveRefs = entries.size();
+                }
+                return;
+            }
+        }
+    }
+}
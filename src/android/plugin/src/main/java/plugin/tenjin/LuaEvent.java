@@ -0,0 +1,68 @@
+//
+// LuaEvent.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.ansca.corona.CoronaRuntime;
+import com.ansca.corona.CoronaRuntimeTask;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A Lua event waiting to be delivered to a listener.
+ * <p>
+ * Records are taken from a small pool with {@link #obtain()} and go back to it once delivered,
+ * so steady-state logging does not allocate. The record is its own runtime task.
+ * Only the free-form deep link payload uses a map.
+ */
+class LuaEvent implements CoronaRuntimeTask {
+    private static final int POOL_SIZE = 32;
+    private static final ArrayBlockingQueue<LuaEvent> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    String phase;
+    String type;
+    boolean isError;
+    String countKey;  // optional integer field (key is null when unused)
+    int count;
+    String response;
+    Map<String, String> data;
+    int listener;
+    boolean releaseListener;  // delete the listener reference once called
+    long sentAt;              // System.nanoTime() of the SDK handoff (0 if not applicable)
+    long queuedRound;         // delivery round the event was queued in (callback queue only)
+
+    private LuaEvent() {
+    }
+
+    static LuaEvent obtain() {
+        LuaEvent event = pool.poll();
+        return (event != null) ? event : new LuaEvent();
+    }
+
+    // return the record to the pool (must not be used afterwards)
+    void recycle() {
+        phase = null;
+        type = null;
+        isError = false;
+        countKey = null;
+        count = 0;
+        response = null;
+        data = null;
+        listener = 0;
+        releaseListener = false;
+        sentAt = 0;
+        queuedRound = 0;
+        pool.offer(this);
+    }
+
+    @Override
+    public void executeUsing(CoronaRuntime runtime) {
+        LuaLoader.deliverLuaEvent(runtime.getLuaState(), this);
+        recycle();
+    }
+}
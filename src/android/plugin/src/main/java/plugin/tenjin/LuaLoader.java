@@ -22,10 +22,17 @@ import com.naef.jnlua.JavaFunction;
 import com.naef.jnlua.LuaType;
 import com.naef.jnlua.NamedJavaFunction;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 // plugin imports
@@ -54,6 +61,10 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     // event phases
     private static final String PHASE_INIT = "init";
     private static final String PHASE_RECORDED = "recorded";
+    private static final String PHASE_STATS = "stats";
+    private static final String PHASE_SUPPRESSED = "suppressed";
+    private static final String PHASE_DUPLICATE = "duplicate";
+    private static final String PHASE_SESSION = "session";
 
     // message constants
     private static final String CORONA_TAG = "Corona";
@@ -64,18 +75,103 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     private static final String EVENT_PHASE_KEY = "phase";
     private static final String EVENT_TYPE_KEY = "type";
     private static final String EVENT_DATA_KEY = "data";
+    private static final String DROPPED_EVENTS_KEY = "droppedEvents";
+    private static final String COUNT_KEY = "count";
+    private static final String ERROR_CODE_KEY = "errorCode";
 
-    private static int coronaListener = CoronaLua.REFNIL;
-    private static int deepLinkListener = CoronaLua.REFNIL;
-    private static CoronaRuntimeTaskDispatcher coronaRuntimeTaskDispatcher = null;
+    // listener, dispatcher and SDK instance, replaced as a whole on lifecycle transitions (read it once per use)
+    private static final AtomicReference<PluginState> pluginState = new AtomicReference<>(PluginState.INITIAL);
 
+    // refs of the init() and getDeepLink() listeners, shared when the same listener is passed again
+    private static final ListenerRegistry listenerRegistry = new ListenerRegistry();
+
+    // Lua call being executed, for console messages and validation failure counts (Lua thread only)
     private static String functionSignature = "";
-    private static final Map<String, Object> tenjinObjects = new HashMap<>();  // keep track of loaded objects
+    private static int statsApi = -1;
     private static double NO_DATA = Integer.MAX_VALUE;
 
-    // object dictionary keys
-    private static final String DEVELOPER_API_KEY = "apiKey";
-    private static final String TENJIN_INSTANCE = "tenjinInstance";
+    // batched Lua callback delivery (init option "batchCallbacks"),
+    // bounded when init options "callbackQueueSize", "callbackQueuePolicy" and "callbackQueueTimeout" are set
+    private static volatile boolean batchCallbacks = false;
+    private static final CallbackQueue callbackQueue = new CallbackQueue(PHASE_RECORDED, COUNT_KEY);
+    private static final AtomicBoolean callbackTaskPosted = new AtomicBoolean();
+
+    // time spent delivering callbacks per runtime task (init options "callbackFrameBudget", "purchaseCallbackMaxFrames")
+    private static volatile long callbackFrameBudget = 0;       // ns, 0 = no limit
+    private static volatile int purchaseCallbackMaxFrames = 2;  // delivery rounds a purchase callback may wait
+    private static volatile long deliveryRound = 0;             // runs of the callback task (written on the Lua thread)
+
+    // thread running Lua, callback producers on it (or on the main thread) never wait for room in the callback queue
+    private static volatile Thread luaThread = null;
+
+    // events logged before the SDK instance is available (init options "preInitBufferSize", "preInitOverflow")
+    private static final EventRingBuffer preInitBuffer = new EventRingBuffer();
+
+    // crash-safe record of events not yet handed to the SDK (init option "eventJournal")
+    private static volatile EventJournal eventJournal = null;
+
+    // receipt checks and the events queued behind them on the worker thread, so events reach the SDK in call order
+    private static final AtomicInteger eventsOnWorker = new AtomicInteger();
+
+    // purchases already logged, persisted across sessions (init options "dedupePurchases", "dedupeBloomFilter")
+    private static volatile PurchaseDeduplicator purchaseDeduplicator = null;
+
+    // foreground sessions, summarized on suspend (init option "sessionEvent")
+    private static final SessionTracker sessionTracker = new SessionTracker();
+    private static volatile String sessionEventName = null;
+
+    // conversion value derived from logged events and purchases (init option "conversionRules")
+    private static volatile ConversionValueEngine conversionValueEngine = null;
+
+    // deep link result shared by all getDeepLink() callers (init option "deepLinkCacheTTL")
+    private static final DeepLinkCache deepLinkCache = new DeepLinkCache();
+
+    // debounces reconnects on resume (init option "resumeConnectInterval")
+    private static final ResumeScheduler resumeScheduler = new ResumeScheduler();
+
+    // per-API counters and latency histograms (tenjin.getStats(), init option "statsInterval")
+    private static final PluginStats pluginStats = new PluginStats();
+    private static volatile long statsInterval = 0;
+    private static final AtomicBoolean statsTaskScheduled = new AtomicBoolean();
+
+    // rate limits and sampling for logEvent() / logEvents() (init options "rateLimits", "rateLimitReportInterval")
+    private static final EventRateLimiter eventRateLimiter = new EventRateLimiter();
+    private static volatile long rateLimitReportInterval = 0;
+    private static final AtomicBoolean rateLimitTaskScheduled = new AtomicBoolean();
+
+    // event names registered with tenjin.registerEvent(), handle = index + 1 (Lua thread only)
+    private static final List<String> registeredEventNames = new ArrayList<>();
+    private static final Map<String, Integer> registeredEventHandles = new HashMap<>();
+
+    // runs SDK work on the UI thread or on a dedicated worker (init option "executionMode")
+    private static final SdkExecutor sdkExecutor = new SdkExecutor();
+
+    // sends the Corona beacon once per process, when the main thread is idle
+    private static final BeaconScheduler beaconScheduler = new BeaconScheduler();
+
+    // queues logEvent() / logPurchase() calls and hands them to the SDK in batches
+    private final EventBatcher eventBatcher = new EventBatcher(sdkExecutor, new EventBatcher.Sink() {
+        @Override
+        public void send(PendingEvent event) {
+            sendPendingEvent(event);
+        }
+    });
+
+    // takes the events dropped when the runtime exits
+    private final EventBatcher.Sink abandonSink = new EventBatcher.Sink() {
+        @Override
+        public void send(PendingEvent event) {
+            abandonEvent(event);
+        }
+    };
+
+    // sums high-frequency logEvent() calls per name and window (init options "aggregateEvents", "aggregationInterval", "aggregationSize")
+    private final EventAggregator eventAggregator = new EventAggregator(sdkExecutor, new EventAggregator.Sink() {
+        @Override
+        public void send(PendingEvent event) {
+            sendPendingEvent(event);
+        }
+    });
 
     // -------------------------------------------------------
     // Plugin lifecycle events
@@ -114,22 +210,18 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         NamedJavaFunction[] luaFunctions = new NamedJavaFunction[]{
                 new Init(),
                 new LogEvent(),
+                new LogEvents(),
+                new RegisterEvent(),
                 new LogPurchase(),
                 new GetDeepLink(),
-                new NamedJavaFunction() {
-                    @Override
-                    public String getName() {
-                        return "updateConversionValue";
-                    }
-
-                    @Override
-                    public int invoke(LuaState luaState) {
-                        return 0;
-                    }
-                }
+                new InvalidateDeepLink(),
+                new GetCachedDeepLink(),
+                new GetStats(),
+                new UpdateConversionValue()
         };
         String libName = L.toString(1);
         L.register(libName, luaFunctions);
+        luaThread = Thread.currentThread();
 
         // Returning 1 indicates that the Lua require() function will return the above Lua library
         return 1;
@@ -150,9 +242,15 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         // this plugin has been required-in by Lua, which occurs after the onLoaded() event.
         // However, this method will be called when a 2nd Corona activity has been created.
 
-        if (coronaRuntimeTaskDispatcher == null) {
-            coronaRuntimeTaskDispatcher = new CoronaRuntimeTaskDispatcher(runtime);
-        }
+        CoronaRuntimeTaskDispatcher dispatcher = new CoronaRuntimeTaskDispatcher(runtime);
+
+        PluginState current;
+        do {
+            current = pluginState.get();
+            if (current.dispatcher != null) {
+                return;
+            }
+        } while (!pluginState.compareAndSet(current, current.withDispatcher(dispatcher)));
     }
 
     /**
@@ -164,6 +262,7 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
      */
     @Override
     public void onStarted(CoronaRuntime runtime) {
+        sessionTracker.start();
     }
 
     /**
@@ -177,6 +276,10 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
      */
     @Override
     public void onSuspended(CoronaRuntime runtime) {
+        // don't hold aggregated events while the app may be killed
+        eventAggregator.flush();
+
+        endSession();
     }
 
     /**
@@ -189,20 +292,36 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     @Override
     public void onResumed(CoronaRuntime runtime) {
         final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+        sessionTracker.start();
+
+        // nothing to reconnect before init has connected
+        if (pluginState.get().phase != PluginState.READY) {
+            resumeScheduler.skipped();
+            return;
+        }
 
-        if (coronaActivity != null) {
+        if ((coronaActivity != null) && resumeScheduler.shouldConnect()) {
             Runnable runnableActivity = new Runnable() {
                 public void run() {
+                    PluginState state = pluginState.get();
+                    if (state.phase != PluginState.READY) { // runtime has exited
+                        resumeScheduler.cancel();
+                        return;
+                    }
+
                     // initialize the SDK
-                    TenjinSDK instance = TenjinSDK.getInstance(coronaActivity, (String) tenjinObjects.get(DEVELOPER_API_KEY));
+                    TenjinSDK instance = TenjinSDK.getInstance(coronaActivity, state.apiKey);
                     if (instance != null) {
                         instance.connect();
+                        resumeScheduler.connected();
+                    } else {
+                        resumeScheduler.cancel();
                     }
                 }
             };
 
-            // Run the activity on the UI thread
-            coronaActivity.runOnUiThread(runnableActivity);
+            // Run the activity on the SDK thread
+            sdkExecutor.execute(runnableActivity);
         }
     }
 
@@ -219,15 +338,50 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
      */
     @Override
     public void onExiting(final CoronaRuntime runtime) {
+        // stop delivering events, work still in flight sees the exiting state
+        PluginState exiting;
+        do {
+            exiting = pluginState.get();
+        } while (!pluginState.compareAndSet(exiting, exiting.exiting()));
+
         // reset class variables
-        CoronaLua.deleteRef(runtime.getLuaState(), coronaListener);
-        CoronaLua.deleteRef(runtime.getLuaState(), deepLinkListener);
-        coronaListener = CoronaLua.REFNIL;
-        deepLinkListener = CoronaLua.REFNIL;
+        sessionTracker.end();
+
+        // answer the getDeepLink() calls still waiting while their listeners can be called
+        for (int listener : deepLinkCache.fail()) {
+            LuaEvent coronaEvent = obtainDeepLinkError();
+            coronaEvent.listener = listener;
+            deliverLuaEvent(runtime.getLuaState(), coronaEvent);
+            coronaEvent.recycle();
+        }
+        listenerRegistry.clear(runtime.getLuaState());
+
+        // events not sent yet are replayed by the next init (if journaled), the current aggregation window included
+        PendingEvent window = eventAggregator.takeWindow();
+        if (window != null) {
+            for (PendingEvent event : window.events) {
+                journalEvent(event);
+                eventBatcher.add(event);
+            }
+            window.recycle();
+        }
+        eventBatcher.clear(abandonSink);
+        eventAggregator.clear();
+        PendingEvent pending;
+        while ((pending = preInitBuffer.poll()) != null) {
+            abandonEvent(pending);
+        }
+        preInitBuffer.clear();
+        callbackQueue.clear();
+        callbackTaskPosted.set(false);
+        registeredEventNames.clear();
+        registeredEventHandles.clear();
+        eventRateLimiter.clear();
 
-        tenjinObjects.clear();
-        coronaRuntimeTaskDispatcher = null;
         functionSignature = "";
+        statsApi = -1;
+
+        pluginState.set(PluginState.INITIAL);
     }
 
     // --------------------------------------------------------------------------
@@ -242,103 +396,1599 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         }
 
         Log.i(CORONA_TAG, msgType + functionID + errorMsg);
+
+        if (msgType.equals(ERROR_MSG) && (statsApi >= 0)) {
+            pluginStats.increment(statsApi, PluginStats.VALIDATION_FAILURES);
+        }
+    }
+
+    // validate an event name (string or registered handle) and optional value (number) on the Lua stack
+    // returns null (after logging the error) if they are invalid
+    private PendingEvent readStandardEvent(LuaState luaState, int nameIndex, int valueIndex, String nameLabel, String valueLabel) {
+        String eventName;
+        double eventValue = NO_DATA;
+
+        // get event name, or the name registered for a handle (no string copy from Lua)
+        if (luaState.type(nameIndex) == LuaType.NUMBER) {
+            int handle = luaState.toInteger(nameIndex);
+            if ((handle < 1) || (handle > registeredEventNames.size()) || (handle != luaState.toNumber(nameIndex))) {
+                logMsg(ERROR_MSG, nameLabel + " is not a handle returned by tenjin.registerEvent(): " + luaState.toNumber(nameIndex));
+                return null;
+            }
+            eventName = registeredEventNames.get(handle - 1);
+        } else if (luaState.type(nameIndex) == LuaType.STRING) {
+            eventName = luaState.toString(nameIndex);
+        } else {
+            logMsg(ERROR_MSG, nameLabel + " (string or event handle) expected, got " + luaState.typeName(nameIndex));
+            return null;
+        }
+
+        // get event value
+        if (!luaState.isNoneOrNil(valueIndex)) {
+            if (luaState.type(valueIndex) == LuaType.NUMBER) {
+                eventValue = luaState.toNumber(valueIndex);
+            } else {
+                logMsg(ERROR_MSG, valueLabel + " (number) expected, got " + luaState.typeName(valueIndex));
+                return null;
+            }
+        }
+
+        return PendingEvent.standard(eventName, eventValue);
+    }
+
+    // read the init option "rateLimits" at the given index: { [eventName or "*"] = { rate=, burst=, sampleRate= }, ... }
+    // returns null (after logging the error) if it is invalid
+    private Map<String, EventRateLimiter.Policy> readRateLimits(LuaState luaState, int index) {
+        Map<String, EventRateLimiter.Policy> policies = new HashMap<>();
+
+        for (luaState.pushNil(); luaState.next(index); luaState.pop(1)) {
+            String eventName = luaState.toString(-2);
+            String label = "options.rateLimits[\"" + eventName + "\"]";
+
+            if (luaState.type(-1) != LuaType.TABLE) {
+                logMsg(ERROR_MSG, label + " expected (table). Got " + luaState.typeName(-1));
+                return null;
+            }
+
+            double rate = 0;
+            double burst = 0;
+            double sampleRate = 1;
+            int policyIndex = luaState.getTop();
+            for (luaState.pushNil(); luaState.next(policyIndex); luaState.pop(1)) {
+                String key = luaState.toString(-2);
+
+                if (luaState.type(-1) != LuaType.NUMBER) {
+                    logMsg(ERROR_MSG, label + "." + key + " expected (number). Got " + luaState.typeName(-1));
+                    return null;
+                }
+
+                if (key.equals("rate")) {
+                    rate = luaState.toNumber(-1);
+                } else if (key.equals("burst")) {
+                    burst = luaState.toNumber(-1);
+                } else if (key.equals("sampleRate")) {
+                    sampleRate = luaState.toNumber(-1);
+                } else {
+                    logMsg(ERROR_MSG, "Invalid option '" + key + "' in " + label);
+                    return null;
+                }
+            }
+
+            // burst defaults to one second worth of events
+            int burstSize = (burst > 0) ? (int) burst : (int) Math.ceil(rate);
+            policies.put(eventName, new EventRateLimiter.Policy(rate, burstSize, sampleRate));
+        }
+
+        return policies;
+    }
+
+    // read the init option "aggregateEvents" at the given index: { eventName, ... }
+    // returns null (after logging the error) if it is invalid
+    private List<String> readEventNames(LuaState luaState, int index, String label) {
+        int count = luaState.length(index);
+        List<String> eventNames = new ArrayList<>(count);
+
+        for (int i = 1; i <= count; i++) {
+            luaState.rawGet(index, i);
+            if (luaState.type(-1) != LuaType.STRING) {
+                logMsg(ERROR_MSG, label + "[" + i + "] expected (string). Got " + luaState.typeName(-1));
+                luaState.pop(1);
+                return null;
+            }
+            eventNames.add(luaState.toString(-1));
+            luaState.pop(1);
+        }
+
+        return eventNames;
+    }
+
+    // add the event to its aggregation window, returns false if it has to be sent on its own (Lua thread)
+    private boolean aggregateEvent(PendingEvent event) {
+        // events logged before init are buffered as usual
+        if (!pluginState.get().isInitialized()) {
+            return false;
+        }
+
+        if (eventAggregator.add(event.name, event.value, event.value != NO_DATA)) {
+            event.recycle();
+            return true;
+        }
+
+        return false;
     }
 
-    // return true if SDK is properly initialized
-    private boolean isSDKInitialized() {
-        if (coronaListener == CoronaLua.REFNIL) {
-            logMsg(ERROR_MSG, "tenjin.init() must be called before calling other API functions");
+    // validate a purchase receipt against its product data, then queue the purchase (called on the SDK worker thread)
+    private void processReceipt(PendingEvent event) {
+        if (checkReceipt(event)) {
+            recordAcceptedEvent(event);
+            queueEvent(event);
+        }
+    }
+
+    // returns false (after reporting and discarding the purchase) if the receipt is for another product or already logged
+    // receipts that are not Google Play purchases are sent as they are, unchecked
+    private boolean checkReceipt(PendingEvent event) {
+        PurchaseReceipt receipt = null;
+        if (event.receipt.length() > PurchaseReceipt.MAX_LENGTH) {
+            Log.i(CORONA_TAG, WARNING_MSG + "tenjin.logPurchase(productData [, receiptData]), receiptData.receipt is longer than " + PurchaseReceipt.MAX_LENGTH + " characters, sent without being checked");
+        } else {
+            receipt = PurchaseReceipt.parse(event.receipt);
+            if (receipt == null) {
+                Log.i(CORONA_TAG, WARNING_MSG + "tenjin.logPurchase(productData [, receiptData]), receiptData.receipt is not a Google Play purchase (productId and purchaseTime expected), sent without being checked");
+            }
+        }
+
+        if ((receipt != null) && !receipt.productId.equals(event.productId)) {
+            rejectPurchase(event, PurchaseReceipt.ERROR_PRODUCT_MISMATCH, "productData.productId '" + event.productId + "' does not match the receipt's productId '" + receipt.productId + "'");
             return false;
         }
 
+        // reject store re-deliveries of a purchase that was already logged (recorded once the SDK has it)
+        PurchaseDeduplicator deduplicator = purchaseDeduplicator;
+        if (deduplicator != null) {
+            String purchaseId = ((receipt != null) && (receipt.getPurchaseKey() != null)) ? receipt.getPurchaseKey() : event.receipt;
+            long purchaseKey = PurchaseDeduplicator.keyOf(purchaseId, event.signature);
+            if (!deduplicator.reserve(purchaseKey)) {
+                pluginStats.duplicatePurchases.incrementAndGet();
+
+                LuaEvent coronaEvent = LuaEvent.obtain();
+                coronaEvent.phase = PHASE_DUPLICATE;
+                coronaEvent.type = TYPE_PURCHASE;
+                coronaEvent.data = Collections.singletonMap("productId", event.productId);
+                dispatchLuaEvent(coronaEvent);
+                discardEvent(event);
+                return false;
+            }
+            event.purchaseKey = purchaseKey;
+        }
+
         return true;
     }
 
-    // dispatch a Lua event to our callback (dynamic handling of properties through map)
-    private void dispatchLuaEvent(final Map<String, String> event, final int listener) {
-        final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+    // report an invalid purchase to the console and the listener (called on the SDK worker thread)
+    private void rejectPurchase(PendingEvent event, String errorCode, String errorMsg) {
+        Log.i(CORONA_TAG, ERROR_MSG + "tenjin.logPurchase(productData [, receiptData]), " + errorMsg);
+        pluginStats.increment(PluginStats.API_LOG_PURCHASE, PluginStats.VALIDATION_FAILURES);
+
+        LuaEvent coronaEvent = LuaEvent.obtain();
+        coronaEvent.type = TYPE_PURCHASE;
+        coronaEvent.isError = true;
+        coronaEvent.response = errorMsg;
+        coronaEvent.data = Collections.singletonMap(ERROR_CODE_KEY, errorCode);
+        dispatchLuaEvent(coronaEvent);
+        discardEvent(event);
+    }
+
+    // read the init option "conversionRules" at the given index: { { value=, event=, count=, revenue=, currency=, window= }, ... }
+    // returns null (after logging the error) if it is invalid
+    private List<ConversionValueEngine.Rule> readConversionRules(LuaState luaState, int index) {
+        int count = luaState.length(index);
+        if (count > ConversionValueEngine.MAX_RULES) {
+            logMsg(ERROR_MSG, "options.conversionRules can hold up to " + ConversionValueEngine.MAX_RULES + " rules, got " + count);
+            return null;
+        }
+
+        List<ConversionValueEngine.Rule> rules = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String label = "options.conversionRules[" + i + "]";
+            luaState.rawGet(index, i);
+            if (luaState.type(-1) != LuaType.TABLE) {
+                logMsg(ERROR_MSG, label + " expected (table). Got " + luaState.typeName(-1));
+                return null;
+            }
+
+            double value = -1;
+            String eventName = null;
+            String currency = null;
+            double eventCount = 1;
+            double revenue = -1;
+            double window = 0;
+            int ruleIndex = luaState.getTop();
+            for (luaState.pushNil(); luaState.next(ruleIndex); luaState.pop(1)) {
+                String key = luaState.toString(-2);
+
+                if (key.equals("event")) {
+                    if (luaState.type(-1) == LuaType.STRING) {
+                        eventName = luaState.toString(-1);
+                    } else {
+                        logMsg(ERROR_MSG, label + ".event expected (string). Got " + luaState.typeName(-1));
+                        return null;
+                    }
+                } else if (key.equals("currency")) {
+                    if (luaState.type(-1) == LuaType.STRING) {
+                        currency = luaState.toString(-1).toUpperCase();
+                    } else {
+                        logMsg(ERROR_MSG, label + ".currency expected (string). Got " + luaState.typeName(-1));
+                        return null;
+                    }
+                } else if (key.equals("value") || key.equals("count") || key.equals("revenue") || key.equals("window")) {
+                    if (luaState.type(-1) != LuaType.NUMBER) {
+                        logMsg(ERROR_MSG, label + "." + key + " expected (number). Got " + luaState.typeName(-1));
+                        return null;
+                    }
+
+                    if (key.equals("value")) {
+                        value = luaState.toNumber(-1);
+                    } else if (key.equals("count")) {
+                        eventCount = luaState.toNumber(-1);
+                    } else if (key.equals("revenue")) {
+                        revenue = luaState.toNumber(-1);
+                    } else {
+                        window = luaState.toNumber(-1);
+                    }
+                } else {
+                    logMsg(ERROR_MSG, "Invalid option '" + key + "' in " + label);
+                    return null;
+                }
+            }
+            luaState.pop(1);
+
+            if ((value < 0) || (value > ConversionValueEngine.MAX_VALUE) || (value != Math.floor(value))) {
+                logMsg(ERROR_MSG, label + ".value (integer 0-" + ConversionValueEngine.MAX_VALUE + ") required");
+                return null;
+            }
+            if ((eventName == null) == (revenue < 0)) {
+                logMsg(ERROR_MSG, label + " requires either event or revenue");
+                return null;
+            }
+            if ((revenue >= 0) != (currency != null)) {
+                logMsg(ERROR_MSG, label + ".currency is required with revenue (and only with revenue)");
+                return null;
+            }
+
+            double threshold = (eventName != null) ? eventCount : revenue;
+            rules.add(new ConversionValueEngine.Rule((int) value, eventName, currency, threshold, (long) window));
+        }
+
+        return rules;
+    }
+
+    // count an event about to be sent in the session and feed it to the conversion value engine
+    // (the SDK is only called if the conversion value changes)
+    private void recordAcceptedEvent(PendingEvent event) {
+        if (event.kind == PendingEvent.KIND_PURCHASE) {
+            sessionTracker.countPurchase();
+        } else {
+            sessionTracker.countEvent(1);
+        }
+
+        ConversionValueEngine engine = conversionValueEngine;
+        if (engine == null) {
+            return;
+        }
+
+        boolean changed = (event.kind == PendingEvent.KIND_PURCHASE) ? engine.recordRevenue(event.currencyCode, event.quantity * event.unitPrice) : engine.recordEvent(event.name);
+        if (changed) {
+            sdkExecutor.execute(conversionValueTask);
+        }
+    }
 
-        if (coronaActivity == null) { // bail if no valid activity
+    // hands the conversion value to the SDK if it changed since the last call (called on the SDK thread)
+    private final Runnable conversionValueTask = new Runnable() {
+        @Override
+        public void run() {
+            TenjinSDK instance = pluginState.get().instance;
+            ConversionValueEngine engine = conversionValueEngine;
+            if ((instance == null) || (engine == null)) {
+                return; // sent once init completes
+            }
+
+            int value = engine.takeUnsentValue();
+            if (value >= 0) {
+                instance.updateConversionValue(value);
+            }
+        }
+    };
+
+    // close the current session and report it (init option "sessionEvent")
+    private void endSession() {
+        SessionTracker.Summary summary = sessionTracker.end();
+        String eventName = sessionEventName;
+        if ((summary == null) || (eventName == null) || !pluginState.get().isInitialized()) {
+            return;
+        }
+
+        // a single Tenjin event, valued with the foreground time in seconds, sent after the queued events
+        // the listener only gets the "session" event below, not a "recorded" one
+        if (CoronaEnvironment.getCoronaActivity() != null) {
+            final PendingEvent event = PendingEvent.standard(eventName, summary.duration / 1000);
+            eventBatcher.flush();
+            sdkExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TenjinSDK instance = pluginState.get().instance;
+                    if (instance != null) {
+                        sendToSdk(instance, event);
+                    }
+                    event.recycle();
+                }
+            });
+        }
+
+        // full summary for the listener (delivered once the runtime resumes)
+        Map<String, String> data = new HashMap<>();
+        data.put("session", Integer.toString(summary.session));
+        data.put("duration", Long.toString(summary.duration));
+        data.put("events", Integer.toString(summary.events));
+        data.put("purchases", Integer.toString(summary.purchases));
+
+        LuaEvent coronaEvent = LuaEvent.obtain();
+        coronaEvent.phase = PHASE_SESSION;
+        coronaEvent.data = data;
+        dispatchLuaEvent(coronaEvent);
+    }
+
+    // queue a validated event behind the receipt checks still running on the worker thread (Lua thread)
+    private void queueEventInOrder(final PendingEvent event) {
+        if (eventsOnWorker.get() == 0) {
+            queueEvent(event);
             return;
         }
 
-        // Create a new runnable object to invoke our activity
-        Runnable runnableActivity = new Runnable() {
+        eventsOnWorker.incrementAndGet();
+        sdkExecutor.executeInBackground(new Runnable() {
             public void run() {
-                coronaRuntimeTaskDispatcher.send(new CoronaRuntimeTask() {
-                    public void executeUsing(CoronaRuntime runtime) {
-                        try {
-                            LuaState L = runtime.getLuaState();
-                            CoronaLua.newEvent(L, EVENT_NAME);
-                            boolean hasErrorKey = false;
-
-                            // add event parameters from map
-                            for (String key : event.keySet()) {
-                                CoronaLua.pushValue(L, event.get(key));           // push value
-                                L.setField(-2, key);                              // push key
-
-                                if (!hasErrorKey) {
-                                    hasErrorKey = key.equals(CoronaLuaEvent.ISERROR_KEY);
-                                }
-                            }
+                queueEvent(event);
+                eventsOnWorker.decrementAndGet();
+            }
+        });
+    }
 
-                            // add error key if not in map
-                            if (!hasErrorKey) {
-                                L.pushBoolean(false);
-                                L.setField(-2, CoronaLuaEvent.ISERROR_KEY);
-                            }
+    // queue a validated event for the SDK (Lua thread, or SDK worker for purchases with a receipt)
+    private void queueEvent(PendingEvent event) {
+        // buffer events logged before init
+        if (!pluginState.get().isInitialized()) {
+            bufferPreInitEvent(event);
+            return;
+        }
+
+        // queue event for the next batch
+        if (CoronaEnvironment.getCoronaActivity() != null) {
+            eventBatcher.add(event);
+        } else {
+            pluginStats.increment(statsApiOf(event), PluginStats.DROPPED_NO_ACTIVITY);
+            abandonEvent(event);
+        }
+    }
+
+    // hold on to an event until the SDK instance is available
+    private void bufferPreInitEvent(PendingEvent event) {
+        PendingEvent dropped = preInitBuffer.add(event);
+        if (dropped != null) {
+            logMsg(WARNING_MSG, "event dropped, pre-init buffer is full (tenjin.init() has not completed)");
+            pluginStats.increment(statsApiOf(dropped), PluginStats.DROPPED_NOT_INITIALIZED);
+            discardEvent(dropped);
+        }
+    }
+
+    // stats API of a queued event
+    private static int statsApiOf(PendingEvent event) {
+        switch (event.kind) {
+            case PendingEvent.KIND_PURCHASE:
+                return PluginStats.API_LOG_PURCHASE;
+            case PendingEvent.KIND_BULK:
+                return PluginStats.API_LOG_EVENTS;
+            default:
+                return PluginStats.API_LOG_EVENT;
+        }
+    }
+
+    // record the event in the journal (if enabled) until the SDK has it
+    private void journalEvent(PendingEvent event) {
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            event.journalId = journal.append(event);
+            if (event.journalId < 0) {
+                logMsg(WARNING_MSG, "event journal is full, event not journaled");
+            }
+        }
+    }
+
+    // return events that were never queued to the pool
+    private static void recycleEvents(List<PendingEvent> events) {
+        for (PendingEvent event : events) {
+            event.recycle();
+        }
+    }
+
+    // drop an event that will not be sent, its journal record is not replayed
+    private void discardEvent(PendingEvent event) {
+        EventJournal journal = eventJournal;
+        if (event.kind == PendingEvent.KIND_BULK) {
+            for (PendingEvent item : event.events) {
+                discardEvent(item);
+            }
+        } else if ((event.journalId >= 0) && (journal != null)) {
+            journal.markDone(event.journalId);
+        }
+        releasePurchase(event);
+        event.recycle();
+    }
+
+    // drop an event the runtime can no longer send, its journal record is replayed by the next init
+    private void abandonEvent(PendingEvent event) {
+        EventJournal journal = eventJournal;
+        if (event.kind == PendingEvent.KIND_BULK) {
+            for (PendingEvent item : event.events) {
+                abandonEvent(item);
+            }
+        } else if ((event.journalId >= 0) && (journal != null)) {
+            journal.abandon(event.journalId);
+        }
+        releasePurchase(event);
+        event.recycle();
+    }
+
+    // a purchase that did not reach the SDK is not a duplicate when the store re-delivers it
+    private void releasePurchase(PendingEvent event) {
+        PurchaseDeduplicator deduplicator = purchaseDeduplicator;
+        if ((event.purchaseKey != 0) && (deduplicator != null)) {
+            deduplicator.release(event.purchaseKey);
+        }
+    }
+
+    // hand all events buffered before init to the SDK, in order (called on the SDK thread)
+    private void replayPreInitEvents() {
+        PendingEvent event;
+        while ((event = preInitBuffer.poll()) != null) {
+            sendPendingEvent(event);
+        }
+    }
+
+    // publish the SDK instance, returns the ready state or null if the runtime exited meanwhile
+    private static PluginState becomeReady(TenjinSDK instance) {
+        while (true) {
+            PluginState current = pluginState.get();
+            if (current.phase != PluginState.INITIALIZING) {
+                return null;
+            }
+
+            PluginState ready = current.ready(instance);
+            if (pluginState.compareAndSet(current, ready)) {
+                return ready;
+            }
+        }
+    }
+
+    // dispatch a Lua event to the init() listener (the event record is recycled once delivered)
+    private void dispatchLuaEvent(LuaEvent event) {
+        PluginState state = pluginState.get();
+        dispatchLuaEvent(state, event, state.listener);
+    }
+
+    // dispatch a Lua event to a listener (the event record is recycled once delivered)
+    private void dispatchLuaEvent(LuaEvent event, int listener) {
+        dispatchLuaEvent(pluginState.get(), event, listener);
+    }
+
+    private void dispatchLuaEvent(PluginState state, LuaEvent event, int listener) {
+        CoronaRuntimeTaskDispatcher dispatcher = state.dispatcher;
+
+        // nobody to tell (purchase logged before init)
+        if (listener == CoronaLua.REFNIL) {
+            event.recycle();
+            return;
+        }
+
+        // bail if no valid activity or runtime has exited
+        if ((CoronaEnvironment.getCoronaActivity() == null) || (dispatcher == null) || (state.phase == PluginState.EXITING)) {
+            pluginStats.callbacksDropped.incrementAndGet();
+            if (event.releaseListener) {
+                listenerRegistry.releaseLater(listener);
+            }
+            event.recycle();
+            return;
+        }
+
+        event.listener = listener;
+
+        if (batchCallbacks || callbackQueue.isBounded() || (callbackFrameBudget > 0)) {
+            // queue the event, a single runtime task delivers everything pending (within the frame budget)
+            event.queuedRound = deliveryRound;
+            // only worker threads may wait for room, never the Lua thread or the main looper
+            boolean mayWait = (Thread.currentThread() != luaThread) && (Looper.myLooper() != Looper.getMainLooper());
+            LuaEvent discarded = callbackQueue.offer(event, mayWait);
+            if (discarded != null) {
+                if (discarded.releaseListener) {
+                    listenerRegistry.releaseLater(discarded.listener);
+                }
+                discarded.recycle();
+            }
+
+            if (callbackTaskPosted.compareAndSet(false, true)) {
+                dispatcher.send(callbackTask);
+            }
+        } else {
+            // the event record is its own runtime task (the dispatcher is thread safe)
+            dispatcher.send(event);
+        }
+    }
+
+    // build the Lua event table and call the listener (runs on the Lua thread)
+    static void deliverLuaEvent(LuaState L, LuaEvent event) {
+        try {
+            CoronaLua.newEvent(L, EVENT_NAME);
+            boolean hasErrorKey = false;
+
+            // add free-form event parameters (deep link payload)
+            if (event.data != null) {
+                for (Map.Entry<String, String> entry : event.data.entrySet()) {
+                    CoronaLua.pushValue(L, entry.getValue());         // push value
+                    L.setField(-2, entry.getKey());                   // push key
+
+                    if (!hasErrorKey) {
+                        hasErrorKey = entry.getKey().equals(CoronaLuaEvent.ISERROR_KEY);
+                    }
+                }
+            }
+
+            if (event.phase != null) {
+                L.pushString(event.phase);
+                L.setField(-2, EVENT_PHASE_KEY);
+            }
+
+            if (event.type != null) {
+                L.pushString(event.type);
+                L.setField(-2, EVENT_TYPE_KEY);
+            }
+
+            if (event.countKey != null) {
+                L.pushInteger(event.count);
+                L.setField(-2, event.countKey);
+            }
+
+            if (event.response != null) {
+                L.pushString(event.response);
+                L.setField(-2, CoronaLuaEvent.RESPONSE_KEY);
+            }
+
+            // add error key if not in payload
+            if (!hasErrorKey) {
+                L.pushBoolean(event.isError);
+                L.setField(-2, CoronaLuaEvent.ISERROR_KEY);
+            }
+
+            // add provider
+            L.pushString(PROVIDER_NAME);
+            L.setField(-2, CoronaLuaEvent.PROVIDER_KEY);
+
+            pluginStats.callbackLatency.recordSince(event.sentAt);
+            CoronaLua.dispatchEvent(L, event.listener, 0);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+
+        // one-shot listener
+        if (event.releaseListener) {
+            listenerRegistry.release(L, event.listener);
+        }
+    }
+
+    // delivers pending Lua events back-to-back in one runtime task (init options "batchCallbacks", "callbackQueueSize"),
+    // leaving what exceeds the frame budget to the next task, except purchase callbacks that waited too long
+    private final CoronaRuntimeTask callbackTask = new CoronaRuntimeTask() {
+        @Override
+        public void executeUsing(CoronaRuntime runtime) {
+            // re-arm before draining so events queued meanwhile get their own task
+            callbackTaskPosted.set(false);
+
+            long round = deliveryRound++;
+            long budget = callbackFrameBudget;
+            long start = System.nanoTime();
+
+            LuaState L = runtime.getLuaState();
+            LuaEvent event;
+            while (((budget <= 0) || (System.nanoTime() - start < budget)) && ((event = callbackQueue.poll()) != null)) {
+                deliverLuaEvent(L, event);
+                event.recycle();
+            }
+
+            if (callbackQueue.size() == 0) {
+                return;
+            }
+
+            // starvation guard: deliver (in order) up to the last overdue purchase callback
+            int overdue = callbackQueue.countThroughOverdue(TYPE_PURCHASE, round - purchaseCallbackMaxFrames);
+            for (int i = 0; (i < overdue) && ((event = callbackQueue.poll()) != null); i++) {
+                deliverLuaEvent(L, event);
+                event.recycle();
+            }
+
+            // continue in the next runtime task
+            CoronaRuntimeTaskDispatcher dispatcher = pluginState.get().dispatcher;
+            if ((callbackQueue.size() > 0) && (dispatcher != null) && callbackTaskPosted.compareAndSet(false, true)) {
+                dispatcher.send(this);
+            }
+        }
+    };
+
+    // Corona beacon listener
+    private class BeaconListener implements JavaFunction {
+        // This method is executed when the Lua function is called
+        @Override
+        public int invoke(LuaState L) {
+            // NOP (Debugging purposes only)
+            // Listener called but the function body should be empty for public release
+            return 0;
+        }
+    }
+
+    // Corona beacon wrapper, returns false if there is no runtime to send it with
+    private boolean
+    sendToBeacon(final String eventType, final String placementID) {
+        PluginState state = pluginState.get();
+
+        // ignore if invalid activity or runtime has exited
+        if ((CoronaEnvironment.getCoronaActivity() == null) || (state.dispatcher == null) || (state.phase == PluginState.EXITING)) {
+            return false;
+        }
+
+        CoronaBeacon.sendDeviceDataToBeacon(state.dispatcher, PLUGIN_NAME, PLUGIN_VERSION, eventType, placementID, new BeaconListener());
+        return true;
+    }
+
+    // sends the impression beacon (called on the main thread once it is idle)
+    private final Runnable beaconTask = new Runnable() {
+        @Override
+        public void run() {
+            // send beacon data to our server (placement set to null. placements not used)
+            if (!sendToBeacon(CoronaBeacon.IMPRESSION, null)) {
+                beaconScheduler.reset();
+            }
+        }
+    };
+
+    // fetch the deep link from the SDK and answer everyone waiting for it (called on the SDK thread)
+    private void requestDeepLink() {
+        TenjinSDK instance = pluginState.get().instance;
+
+        if (instance == null) {
+            for (int listener : deepLinkCache.fail()) {
+                dispatchLuaEvent(obtainDeepLinkError(), listener);
+            }
+            return;
+        }
+
+        final int generation = deepLinkCache.getGeneration();
+        instance.getDeeplink(new Callback() {
+            @Override
+            public void onSuccess(boolean clickedTenjinLink, boolean isFirstSession, Map<String, String> data) {
+                List<Integer> listeners = deepLinkCache.complete(generation, data);
+                if (listeners == null) { // invalidated meanwhile, fetch fresh data for the waiting listeners
+                    sdkExecutor.execute(new Runnable() {
+                        public void run() {
+                            requestDeepLink();
+                        }
+                    });
+                    return;
+                }
+
+                for (int listener : listeners) {
+                    dispatchDeepLinkEvent(data, listener);
+                }
+            }
+        });
+    }
+
+    // error event for a getDeepLink() listener that gets no deep link (the listener is released once called)
+    private static LuaEvent obtainDeepLinkError() {
+        LuaEvent coronaEvent = LuaEvent.obtain();
+        coronaEvent.isError = true;
+        coronaEvent.response = "tenjin.init() must be called before calling tenjin.getDeepLink()";
+        coronaEvent.releaseListener = true;
+        return coronaEvent;
+    }
+
+    // send deep link data to a getDeepLink() listener (the listener is released once called)
+    private void dispatchDeepLinkEvent(Map<String, String> data, int listener) {
+        LuaEvent coronaEvent = LuaEvent.obtain();
+        coronaEvent.data = data;
+        coronaEvent.releaseListener = true;
+        dispatchLuaEvent(coronaEvent, listener);
+    }
+
+    // sends an analyticsRequest "stats" event every statsInterval, until the runtime exits
+    private final Runnable statsTask = new Runnable() {
+        @Override
+        public void run() {
+            if ((statsInterval <= 0) || !pluginState.get().isInitialized()) {
+                statsTaskScheduled.set(false);
+                return;
+            }
+
+            LuaEvent coronaEvent = LuaEvent.obtain();
+            coronaEvent.phase = PHASE_STATS;
+            coronaEvent.data = getStatsSnapshot();
+            dispatchLuaEvent(coronaEvent);
+
+            sdkExecutor.schedule(this, statsInterval);
+        }
+    };
+
+    // sends an analyticsRequest "suppressed" event every rateLimitReportInterval if events were rate limited
+    private final Runnable rateLimitTask = new Runnable() {
+        @Override
+        public void run() {
+            if ((rateLimitReportInterval <= 0) || !pluginState.get().isInitialized()) {
+                rateLimitTaskScheduled.set(false);
+                return;
+            }
+
+            Map<String, String> counts = eventRateLimiter.takeSuppressedCounts();
+            if (!counts.isEmpty()) {
+                LuaEvent coronaEvent = LuaEvent.obtain();
+                coronaEvent.phase = PHASE_SUPPRESSED;
+                coronaEvent.data = counts;
+                dispatchLuaEvent(coronaEvent);
+            }
+
+            sdkExecutor.schedule(this, rateLimitReportInterval);
+        }
+    };
+
+    // events not journaled because the journal segment was full
+    private static long getJournalSkippedCount() {
+        EventJournal journal = eventJournal;
+        return (journal != null) ? journal.getSkippedCount() : 0;
+    }
+
+    // bytes currently used on the Java heap
+    private static long getHeapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // flat stats snapshot, see PluginStats.toMap()
+    private Map<String, String> getStatsSnapshot() {
+        Map<String, String> stats = pluginStats.toMap();
+        stats.put("resume_connects", Integer.toString(resumeScheduler.getConnectCount()));
+        stats.put("resume_suppressed", Integer.toString(resumeScheduler.getSuppressedCount()));
+        stats.put("resume_skipped", Integer.toString(resumeScheduler.getSkippedCount()));
+        stats.put("queue_events", Integer.toString(eventBatcher.size()));
+        stats.put("queue_callbacks", Integer.toString(callbackQueue.size()));
+        stats.put("queue_preInit", Integer.toString(preInitBuffer.size()));
+        stats.put("queue_aggregated", Integer.toString(eventAggregator.size()));
+        stats.put("suppressedEvents", Long.toString(eventRateLimiter.getTotalSuppressed()));
+        stats.put("journalSkipped", Long.toString(getJournalSkippedCount()));
+        stats.put("callbackQueue_peak", Integer.toString(callbackQueue.getPeakSize()));
+        stats.put("callbackQueue_dropped", Long.toString(callbackQueue.getDroppedCount()));
+        stats.put("callbackQueue_merged", Long.toString(callbackQueue.getMergedCount()));
+        stats.put("session_count", Integer.toString(sessionTracker.getSessionCount()));
+        stats.put("session_foregroundTime", Long.toString(sessionTracker.getForegroundTime()));
+        stats.put("session_events", Integer.toString(sessionTracker.getEventCount()));
+        stats.put("session_purchases", Integer.toString(sessionTracker.getPurchaseCount()));
+        stats.put("listenerRefs", Integer.toString(listenerRegistry.getLiveRefCount()));
+        stats.put("heapUsed", Long.toString(getHeapUsed()));
+        return stats;
+    }
+
+    // hand a queued event to the SDK (called on the SDK thread by the event batcher)
+    private void sendPendingEvent(PendingEvent event) {
+        PluginState state = pluginState.get();
+        TenjinSDK instance = state.instance;
+
+        if (instance == null) {
+            if (state.phase == PluginState.INITIALIZING) { // init still in progress
+                bufferPreInitEvent(event);
+            } else { // runtime has exited
+                pluginStats.increment(statsApiOf(event), PluginStats.DROPPED_NOT_INITIALIZED);
+                abandonEvent(event);
+            }
+            return;
+        }
+
+        LuaEvent coronaEvent = LuaEvent.obtain();
+        coronaEvent.phase = PHASE_RECORDED;
+
+        if (event.kind == PendingEvent.KIND_BULK) {
+            // all events of a logEvents() call, reported with a single callback
+            for (PendingEvent item : event.events) {
+                sendToSdk(instance, item);
+                item.recycle();
+            }
+
+            coronaEvent.type = TYPE_STANDARD;
+            coronaEvent.countKey = COUNT_KEY;
+            coronaEvent.count = event.events.size();
+        } else {
+            sendToSdk(instance, event);
+            coronaEvent.type = (event.kind == PendingEvent.KIND_PURCHASE) ? TYPE_PURCHASE : TYPE_STANDARD;
+        }
+
+        pluginStats.handoffLatency.recordSince(event.createdAt);
+        coronaEvent.sentAt = System.nanoTime();
+        event.recycle();
+
+        // send Corona Lua event
+        dispatchLuaEvent(state, coronaEvent, state.listener);
+    }
+
+    // make the SDK call for a single event or purchase
+    private void sendToSdk(TenjinSDK instance, PendingEvent event) {
+        if (event.kind == PendingEvent.KIND_PURCHASE) {
+            // send purchase to Tenjin
+            if (event.signature != null) {
+                instance.transaction(event.productId, event.currencyCode, event.quantity, event.unitPrice, event.receipt, event.signature);
+            } else {
+                instance.transaction(event.productId, event.currencyCode, event.quantity, event.unitPrice);
+            }
+
+            // re-deliveries are duplicates from now on
+            PurchaseDeduplicator deduplicator = purchaseDeduplicator;
+            if ((event.purchaseKey != 0) && (deduplicator != null)) {
+                deduplicator.record(event.purchaseKey);
+            }
+        } else {
+            // send event to Tenjin
+            if (event.value != NO_DATA) {
+                // verify if truncating value
+                if (event.isValueTruncated()) {
+                    logMsg(WARNING_MSG, "event value has been truncated from " + event.value + " to " + event.intValue());
+                }
+                instance.eventWithNameAndValue(event.name, event.intValue());
+            } else {
+                instance.eventWithName(event.name);
+            }
+        }
+
+        // the SDK has the event, no need to replay it
+        EventJournal journal = eventJournal;
+        if ((event.journalId >= 0) && (journal != null)) {
+            journal.markDone(event.journalId);
+        }
+    }
+
+    // -------------------------------------------------------
+    // plugin implementation
+    // -------------------------------------------------------
+
+    // [Lua] init(listener, options)
+    private class Init implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
+        @Override
+        public String getName() {
+            return "init";
+        }
+
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(final LuaState luaState) {
+            functionSignature = "tenjin.init(listener, options)";
+            statsApi = PluginStats.API_INIT;
+            pluginStats.increment(statsApi, PluginStats.CALLS);
+
+            String apiKey = null;
+            boolean hasUserConsent = false;
+            int eventBatchSize = 1;
+            long eventBatchInterval = 0;
+            String executionMode = SdkExecutor.MODE_UI;
+            boolean batchCallbacksOption = false;
+            int callbackQueueSize = 0;
+            String callbackQueuePolicy = CallbackQueue.POLICY_DROP_OLDEST;
+            long callbackQueueTimeout = CallbackQueue.DEFAULT_TIMEOUT;
+            double callbackFrameBudgetOption = 0;
+            int purchaseCallbackMaxFramesOption = 2;
+            int preInitBufferSize = EventRingBuffer.DEFAULT_CAPACITY;
+            String preInitOverflow = EventRingBuffer.OVERFLOW_DROP_OLDEST;
+            boolean useEventJournal = false;
+            long deepLinkCacheTTL = 0;
+            boolean prefetchDeepLink = false;
+            long resumeConnectInterval = 0;
+            long statsIntervalOption = 0;
+            Map<String, EventRateLimiter.Policy> rateLimits = null;
+            List<String> aggregateEvents = null;
+            long aggregationInterval = 0;
+            int aggregationSize = 0;
+            boolean dedupePurchases = false;
+            boolean dedupeBloomFilter = false;
+            List<ConversionValueEngine.Rule> conversionRules = null;
+            String sessionEvent = null;
+            long rateLimitReportIntervalOption = 0;
+
+            // prevent init from being called twice
+            PluginState current = pluginState.get();
+            if (current.isInitialized()) {
+                logMsg(ERROR_MSG, "init() should only be called once");
+                return 0;
+            }
+
+            // check number or args
+            int nargs = luaState.getTop();
+            if (nargs != 2) {
+                logMsg(ERROR_MSG, "Expected 2 arguments, got " + nargs);
+                return 0;
+            }
+
+            // check the listener (required), referenced once all options are valid
+            if (!CoronaLua.isListener(luaState, 1, PROVIDER_NAME)) {
+                logMsg(ERROR_MSG, "Listener expected, got: " + luaState.typeName(1));
+                return 0;
+            }
+
+            // check for options table (required)
+            if (luaState.type(2) == LuaType.TABLE) {
+                // traverse and validate all the options
+                for (luaState.pushNil(); luaState.next(2); luaState.pop(1)) {
+                    String key = luaState.toString(-2);
+
+                    if (key.equals("apiKey")) {
+                        if (luaState.type(-1) == LuaType.STRING) {
+                            apiKey = luaState.toString(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.apiKey (string) expected, got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("registerAppForAdNetworkAttribution")) {
+
+                    } else if (key.equals("hasUserConsent")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            hasUserConsent = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.hasUserConsent expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("executionMode")) {
+                        String mode = (luaState.type(-1) == LuaType.STRING) ? luaState.toString(-1) : null;
+                        if (SdkExecutor.MODE_UI.equals(mode) || SdkExecutor.MODE_BACKGROUND.equals(mode)) {
+                            executionMode = mode;
+                        } else {
+                            logMsg(ERROR_MSG, "options.executionMode expected (\"ui\" or \"background\"). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("batchCallbacks")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            batchCallbacksOption = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.batchCallbacks expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("callbackQueueSize")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            callbackQueueSize = (int) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.callbackQueueSize expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("callbackQueuePolicy")) {
+                        String policy = (luaState.type(-1) == LuaType.STRING) ? luaState.toString(-1) : null;
+                        if (CallbackQueue.POLICY_DROP_OLDEST.equals(policy) || CallbackQueue.POLICY_MERGE.equals(policy) || CallbackQueue.POLICY_BLOCK.equals(policy)) {
+                            callbackQueuePolicy = policy;
+                        } else {
+                            logMsg(ERROR_MSG, "options.callbackQueuePolicy expected (\"dropOldest\", \"merge\" or \"block\"). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("callbackQueueTimeout")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            callbackQueueTimeout = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.callbackQueueTimeout expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("callbackFrameBudget")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            callbackFrameBudgetOption = luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.callbackFrameBudget expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("purchaseCallbackMaxFrames")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            purchaseCallbackMaxFramesOption = (int) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.purchaseCallbackMaxFrames expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("preInitBufferSize")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            preInitBufferSize = (int) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.preInitBufferSize expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("preInitOverflow")) {
+                        String overflow = (luaState.type(-1) == LuaType.STRING) ? luaState.toString(-1) : null;
+                        if (EventRingBuffer.OVERFLOW_DROP_OLDEST.equals(overflow) || EventRingBuffer.OVERFLOW_DROP_NEWEST.equals(overflow)) {
+                            preInitOverflow = overflow;
+                        } else {
+                            logMsg(ERROR_MSG, "options.preInitOverflow expected (\"dropOldest\" or \"dropNewest\"). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("eventJournal")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            useEventJournal = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.eventJournal expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("deepLinkCacheTTL")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            deepLinkCacheTTL = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.deepLinkCacheTTL expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("prefetchDeepLink")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            prefetchDeepLink = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.prefetchDeepLink expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("resumeConnectInterval")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            resumeConnectInterval = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.resumeConnectInterval expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("statsInterval")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            statsIntervalOption = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.statsInterval expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("rateLimits")) {
+                        if (luaState.type(-1) == LuaType.TABLE) {
+                            rateLimits = readRateLimits(luaState, luaState.getTop());
+                            if (rateLimits == null) {
+                                return 0;
+                            }
+                        } else {
+                            logMsg(ERROR_MSG, "options.rateLimits expected (table). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("rateLimitReportInterval")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            rateLimitReportIntervalOption = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.rateLimitReportInterval expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("aggregateEvents")) {
+                        if (luaState.type(-1) == LuaType.TABLE) {
+                            aggregateEvents = readEventNames(luaState, luaState.getTop(), "options.aggregateEvents");
+                            if (aggregateEvents == null) {
+                                return 0;
+                            }
+                        } else {
+                            logMsg(ERROR_MSG, "options.aggregateEvents expected (table). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("aggregationInterval")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            aggregationInterval = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.aggregationInterval expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("aggregationSize")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            aggregationSize = (int) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.aggregationSize expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("dedupePurchases")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            dedupePurchases = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.dedupePurchases expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("dedupeBloomFilter")) {
+                        if (luaState.type(-1) == LuaType.BOOLEAN) {
+                            dedupeBloomFilter = luaState.toBoolean(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.dedupeBloomFilter expected (boolean). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("conversionRules")) {
+                        if (luaState.type(-1) == LuaType.TABLE) {
+                            conversionRules = readConversionRules(luaState, luaState.getTop());
+                            if (conversionRules == null) {
+                                return 0;
+                            }
+                        } else {
+                            logMsg(ERROR_MSG, "options.conversionRules expected (table). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("sessionEvent")) {
+                        if (luaState.type(-1) == LuaType.STRING) {
+                            sessionEvent = luaState.toString(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.sessionEvent expected (string). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("eventBatchSize")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            eventBatchSize = (int) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.eventBatchSize expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("eventBatchInterval")) {
+                        if (luaState.type(-1) == LuaType.NUMBER) {
+                            eventBatchInterval = (long) luaState.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.eventBatchInterval expected (number). Got " + luaState.typeName(-1));
+                            return 0;
+                        }
+                    } else {
+                        logMsg(ERROR_MSG, "Invalid option '" + key + "'");
+                        return 0;
+                    }
+                }
+            } else {
+                logMsg(ERROR_MSG, "options table expected, got " + luaState.typeName(2));
+                return 0;
+            }
+
+            // check required params
+            if (apiKey == null) {
+                logMsg(ERROR_MSG, "options.apiKey is required");
+                return 0;
+            }
+
+            // only the SDK worker can wait for the listener, the Lua and main threads never do
+            if (CallbackQueue.POLICY_BLOCK.equals(callbackQueuePolicy) && !SdkExecutor.MODE_BACKGROUND.equals(executionMode)) {
+                logMsg(ERROR_MSG, "options.callbackQueuePolicy \"block\" requires options.executionMode \"background\" (SDK results arrive on the main thread, which never waits)");
+                return 0;
+            }
+
+            // uninitialized -> initializing (onLoaded() is not called for the first activity, bring our own dispatcher)
+            int listener = listenerRegistry.acquire(luaState, 1);
+            CoronaRuntimeTaskDispatcher dispatcher = (current.dispatcher != null) ? current.dispatcher : new CoronaRuntimeTaskDispatcher(luaState);
+            if (!pluginState.compareAndSet(current, current.withDispatcher(dispatcher).initializing(listener, apiKey))) {
+                listenerRegistry.release(luaState, listener);
+                logMsg(ERROR_MSG, "init() should only be called once");
+                return 0;
+            }
+
+            sdkExecutor.setMode(executionMode);
+            batchCallbacks = batchCallbacksOption;
+            callbackQueue.configure(callbackQueueSize, callbackQueuePolicy, callbackQueueTimeout);
+            callbackFrameBudget = (long) (callbackFrameBudgetOption * 1000000);
+            sessionEventName = sessionEvent;
+            purchaseCallbackMaxFrames = Math.max(0, purchaseCallbackMaxFramesOption);
+            eventBatcher.configure(eventBatchSize, eventBatchInterval);
+            for (PendingEvent dropped : preInitBuffer.configure(preInitBufferSize, preInitOverflow)) {
+                pluginStats.increment(statsApiOf(dropped), PluginStats.DROPPED_NOT_INITIALIZED);
+                discardEvent(dropped);
+            }
+            deepLinkCache.setTimeToLive(deepLinkCacheTTL);
+            resumeScheduler.setMinInterval(resumeConnectInterval);
+            statsInterval = statsIntervalOption;
+            if (rateLimits != null) {
+                eventRateLimiter.configure(rateLimits);
+            }
+            rateLimitReportInterval = rateLimitReportIntervalOption;
+            if (aggregateEvents != null) {
+                eventAggregator.configure(aggregateEvents, aggregationInterval, aggregationSize);
+            }
+
+            // open the event journal and pick up events a previous session did not deliver
+            List<PendingEvent> journaledEvents = null;
+            if (useEventJournal && (eventJournal == null) && (CoronaEnvironment.getApplicationContext() != null)) {
+                EventJournal journal = EventJournal.open(CoronaEnvironment.getApplicationContext().getFilesDir(), sdkExecutor);
+                if (journal != null) {
+                    journaledEvents = journal.takePending();
+                    eventJournal = journal;
+                    for (PendingEvent event : journaledEvents) {
+                        journalEvent(event);
+                    }
+                }
+            } else if (useEventJournal && (eventJournal != null)) {
+                // journal already open, pick up events the previous runtime of this process could not send
+                journaledEvents = eventJournal.takeAbandoned();
+            }
+
+            // load the purchases logged by previous sessions
+            if (dedupePurchases && (purchaseDeduplicator == null) && (CoronaEnvironment.getApplicationContext() != null)) {
+                purchaseDeduplicator = PurchaseDeduplicator.open(CoronaEnvironment.getApplicationContext().getFilesDir(), dedupeBloomFilter);
+            }
+
+            // restore the conversion value progress of previous sessions
+            if ((conversionRules != null) && (conversionValueEngine == null)) {
+                File filesDir = (CoronaEnvironment.getApplicationContext() != null) ? CoronaEnvironment.getApplicationContext().getFilesDir() : null;
+                conversionValueEngine = ConversionValueEngine.open(filesDir, conversionRules);
+            }
+
+            // declare final variables for inner loop
+            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+            final String fApiKey = apiKey;
+            final boolean fHasUserConsent = hasUserConsent;
+            final List<PendingEvent> fJournaledEvents = journaledEvents;
+            final boolean fPrefetchDeepLink = prefetchDeepLink;
+
+            if (coronaActivity != null) {
+                Runnable runnableActivity = new Runnable() {
+                    public void run() {
+                        // initialize the SDK
+                        TenjinSDK instance = TenjinSDK.getInstance(coronaActivity, fApiKey);
+
+                        if (fHasUserConsent) {
+                            instance.optIn();
+                        } else {
+                            instance.optOut();
+                        }
+                        //Remove Device IDS (i.e IMEI) for Google Play Warning
+                        String[] optOutParams = {"imei"};
+                        instance.optOutParams(optOutParams);
+
+                        instance.connect();
+                        resumeScheduler.connected();
+
+                        // initializing -> ready
+                        PluginState ready = becomeReady(instance);
+                        if (ready == null) { // runtime has exited
+                            return;
+                        }
+
+                        // send the conversion value reached before init completed
+                        conversionValueTask.run();
+
+                        // start fetching the deferred deep link right away
+                        if (fPrefetchDeepLink && deepLinkCache.startPrefetch()) {
+                            requestDeepLink();
+                        }
+
+                        // send Corona Lua event
+                        int droppedEvents = preInitBuffer.takeDroppedCount();
+                        LuaEvent coronaEvent = LuaEvent.obtain();
+                        coronaEvent.phase = PHASE_INIT;
+                        coronaEvent.countKey = DROPPED_EVENTS_KEY;
+                        coronaEvent.count = droppedEvents;
+                        dispatchLuaEvent(ready, coronaEvent, ready.listener);
+
+                        // send events a previous session did not deliver, then events logged before init completed
+                        if (fJournaledEvents != null) {
+                            for (PendingEvent event : fJournaledEvents) {
+                                // purchases are journaled before their receipt is checked (rare, checked here)
+                                if ((event.receipt == null) || checkReceipt(event)) {
+                                    sendPendingEvent(event);
+                                }
+                            }
+                        }
+                        if (droppedEvents > 0) {
+                            logMsg(WARNING_MSG, droppedEvents + " event(s) logged before init were dropped");
+                        }
+                        replayPreInitEvents();
+
+                        // start periodic stats reports
+                        if ((statsInterval > 0) && statsTaskScheduled.compareAndSet(false, true)) {
+                            sdkExecutor.schedule(statsTask, statsInterval);
+                        }
+                        if ((rateLimitReportInterval > 0) && rateLimitTaskScheduled.compareAndSet(false, true)) {
+                            sdkExecutor.schedule(rateLimitTask, rateLimitReportInterval);
+                        }
+
+                        // log plugin version to device
+                        Log.i(CORONA_TAG, PLUGIN_NAME + ": " + PLUGIN_VERSION + " (SDK: " + PLUGIN_SDK_VERSION + ")");
+
+                        // send beacon data to our server once CoronaBeacon.getDeviceInfo() is ready and the app is idle
+                        beaconScheduler.schedule(beaconTask);
+                    }
+                };
+
+                sdkExecutor.execute(runnableActivity);
+            } else {
+                pluginStats.increment(statsApi, PluginStats.DROPPED_NO_ACTIVITY);
+            }
+
+            return 0;
+        }
+    }
+
+    // [Lua] getDeepLink(listener)
+    private class GetDeepLink implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
+        @Override
+        public String getName() {
+            return "getDeepLink";
+        }
+
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(final LuaState luaState) {
+            functionSignature = "tenjin.getDeepLink(listener)";
+            statsApi = PluginStats.API_GET_DEEP_LINK;
+            pluginStats.increment(statsApi, PluginStats.CALLS);
+
+            // check number or args
+            int nargs = luaState.getTop();
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 arguments, got " + nargs);
+                return 0;
+            }
+
+            // Get the listener (required), released once called
+            int listener;
+            if (CoronaLua.isListener(luaState, 1, PROVIDER_NAME)) {
+                listener = listenerRegistry.acquire(luaState, 1);
+            } else {
+                logMsg(ERROR_MSG, "Listener expected, got: " + luaState.typeName(1));
+                return 0;
+            }
+
+            if (CoronaEnvironment.getCoronaActivity() == null) {
+                pluginStats.increment(statsApi, PluginStats.DROPPED_NO_ACTIVITY);
+                listenerRegistry.release(luaState, listener);
+                return 0;
+            }
+
+            // answer right away from the cache
+            Map<String, String> data = deepLinkCache.get();
+            if (data != null) {
+                dispatchDeepLinkEvent(data, listener);
+                return 0;
+            }
+
+            // wait for the result, only the first caller starts the SDK request
+            if (deepLinkCache.addWaiter(listener)) {
+                sdkExecutor.execute(new Runnable() {
+                    public void run() {
+                        requestDeepLink();
+                    }
+                });
+            }
+
+            return 0;
+        }
+    }
+
+    // [Lua] getCachedDeepLink()
+    private class GetCachedDeepLink implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
+        @Override
+        public String getName() {
+            return "getCachedDeepLink";
+        }
+
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.getCachedDeepLink()";
+            statsApi = -1;
+
+            // return the cached deep link data (table) or nil, never blocks
+            Map<String, String> data = deepLinkCache.get();
+            if (data == null) {
+                luaState.pushNil();
+                return 1;
+            }
+
+            luaState.newTable(0, data.size());
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                CoronaLua.pushValue(luaState, entry.getValue());
+                luaState.setField(-2, entry.getKey());
+            }
+
+            return 1;
+        }
+    }
+
+    // [Lua] getStats()
+    private class GetStats implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
+        @Override
+        public String getName() {
+            return "getStats";
+        }
+
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.getStats()";
+            statsApi = -1;
 
-                            // add provider
-                            L.pushString(PROVIDER_NAME);
-                            L.setField(-2, CoronaLuaEvent.PROVIDER_KEY);
+            luaState.newTable();
 
-                            CoronaLua.dispatchEvent(L, listener, 0);
-                        } catch (Exception ex) {
-                            ex.printStackTrace();
-                        }
-                    }
-                });
+            // per-API counters, e.g. stats.logEvent.calls
+            for (int api = 0; api < PluginStats.API_NAMES.length; api++) {
+                luaState.newTable();
+                for (int counter = 0; counter < PluginStats.COUNTER_NAMES.length; counter++) {
+                    luaState.pushNumber(pluginStats.get(api, counter));
+                    luaState.setField(-2, PluginStats.COUNTER_NAMES[counter]);
+                }
+                luaState.setField(-2, PluginStats.API_NAMES[api]);
             }
-        };
 
-        // Run the activity on the UI thread
-        coronaActivity.runOnUiThread(runnableActivity);
+            pushHistogram(luaState, pluginStats.handoffLatency);
+            luaState.setField(-2, "handoffLatency");
+            pushHistogram(luaState, pluginStats.callbackLatency);
+            luaState.setField(-2, "callbackLatency");
+
+            // resume reconnects
+            luaState.newTable();
+            luaState.pushNumber(resumeScheduler.getConnectCount());
+            luaState.setField(-2, "connects");
+            luaState.pushNumber(resumeScheduler.getSuppressedCount());
+            luaState.setField(-2, "suppressed");
+            luaState.pushNumber(resumeScheduler.getSkippedCount());
+            luaState.setField(-2, "skipped");
+            luaState.setField(-2, "resume");
+
+            // queue depths
+            luaState.newTable();
+            luaState.pushNumber(eventBatcher.size());
+            luaState.setField(-2, "events");
+            luaState.pushNumber(callbackQueue.size());
+            luaState.setField(-2, "callbacks");
+            luaState.pushNumber(preInitBuffer.size());
+            luaState.setField(-2, "preInit");
+            luaState.pushNumber(eventAggregator.size());
+            luaState.setField(-2, "aggregated");
+            luaState.setField(-2, "queues");
+
+            luaState.pushNumber(pluginStats.callbacksDropped.get());
+            luaState.setField(-2, "callbacksDropped");
+            luaState.pushNumber(pluginStats.duplicatePurchases.get());
+            luaState.setField(-2, "duplicatePurchases");
+            luaState.pushNumber(eventRateLimiter.getTotalSuppressed());
+            luaState.setField(-2, "suppressedEvents");
+            luaState.pushNumber(getJournalSkippedCount());
+            luaState.setField(-2, "journalSkipped");
+            // bounded callback queue
+            luaState.newTable();
+            luaState.pushNumber(callbackQueue.getPeakSize());
+            luaState.setField(-2, "peak");
+            luaState.pushNumber(callbackQueue.getDroppedCount());
+            luaState.setField(-2, "dropped");
+            luaState.pushNumber(callbackQueue.getMergedCount());
+            luaState.setField(-2, "merged");
+            luaState.setField(-2, "callbackQueue");
+
+            // foreground sessions
+            luaState.newTable();
+            luaState.pushNumber(sessionTracker.getSessionCount());
+            luaState.setField(-2, "count");
+            luaState.pushNumber(sessionTracker.getForegroundTime());
+            luaState.setField(-2, "foregroundTime");
+            luaState.pushNumber(sessionTracker.getEventCount());
+            luaState.setField(-2, "events");
+            luaState.pushNumber(sessionTracker.getPurchaseCount());
+            luaState.setField(-2, "purchases");
+            luaState.setField(-2, "session");
+
+            luaState.pushNumber(listenerRegistry.getLiveRefCount());
+            luaState.setField(-2, "listenerRefs");
+            luaState.pushNumber(getHeapUsed());
+            luaState.setField(-2, "heapUsed");
+
+            return 1;
+        }
+
+        // { count=, mean=, p50=, p90=, p99=, buckets={ { limit=, count= }, ... } } with times in ms
+        private void pushHistogram(LuaState luaState, PluginStats.LatencyHistogram histogram) {
+            luaState.newTable();
+            luaState.pushNumber(histogram.getCount());
+            luaState.setField(-2, "count");
+            luaState.pushNumber(histogram.getMeanMillis());
+            luaState.setField(-2, "mean");
+            luaState.pushNumber(histogram.getPercentileMillis(0.50));
+            luaState.setField(-2, "p50");
+            luaState.pushNumber(histogram.getPercentileMillis(0.90));
+            luaState.setField(-2, "p90");
+            luaState.pushNumber(histogram.getPercentileMillis(0.99));
+            luaState.setField(-2, "p99");
+
+            int bucketCount = PluginStats.LatencyHistogram.BUCKET_LIMITS.length + 1;
+            luaState.newTable(bucketCount, 0);
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                luaState.newTable();
+                luaState.pushNumber((bucket < bucketCount - 1) ? PluginStats.LatencyHistogram.BUCKET_LIMITS[bucket] : Double.POSITIVE_INFINITY);
+                luaState.setField(-2, "limit");
+                luaState.pushNumber(histogram.getBucket(bucket));
+                luaState.setField(-2, "count");
+                luaState.rawSet(-2, bucket + 1);
+            }
+            luaState.setField(-2, "buckets");
+        }
     }
 
-    // Corona beacon listener
-    private class BeaconListener implements JavaFunction {
-        // This method is executed when the Lua function is called
+    // [Lua] invalidateDeepLink()
+    private class InvalidateDeepLink implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
         @Override
-        public int invoke(LuaState L) {
-            // NOP (Debugging purposes only)
-            // Listener called but the function body should be empty for public release
-            return 0;
+        public String getName() {
+            return "invalidateDeepLink";
         }
-    }
 
-    // Corona beacon wrapper
-    private void
-    sendToBeacon(final String eventType, final String placementID) {
-        final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.invalidateDeepLink()";
+            statsApi = -1;
 
-        // ignore if invalid activity
-        if (coronaActivity != null) {
-            // Create a new runnable object to invoke our activity
-            Runnable runnableActivity = new Runnable() {
-                public void run() {
-                    CoronaBeacon.sendDeviceDataToBeacon(coronaRuntimeTaskDispatcher, PLUGIN_NAME, PLUGIN_VERSION, eventType, placementID, new BeaconListener());
-                }
-            };
+            deepLinkCache.invalidate();
 
-            coronaActivity.runOnUiThread(runnableActivity);
+            return 0;
         }
     }
-    // -------------------------------------------------------
-    // plugin implementation
-    // -------------------------------------------------------
 
-    // [Lua] init(listener, options)
-    private class Init implements NamedJavaFunction {
+    // [Lua] logEvent(event [, value])
+    private class LogEvent implements NamedJavaFunction {
         /**
          * Gets the name of the Lua function as it would appear in the Lua script.
          *
@@ -346,7 +1996,7 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          */
         @Override
         public String getName() {
-            return "init";
+            return "logEvent";
         }
 
         /**
@@ -359,126 +2009,44 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          * @return Returns the number of values to be returned by the Lua function.
          */
         @Override
-        public int invoke(final LuaState luaState) {
-            functionSignature = "tenjin.init(listener, options)";
-
-            String apiKey = null;
-            boolean hasUserConsent = false;
-
-            // prevent init from being called twice
-            if (coronaListener != CoronaLua.REFNIL) {
-                logMsg(ERROR_MSG, "init() should only be called once");
-                return 0;
-            }
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.logEvent(event [, value])";
+            statsApi = PluginStats.API_LOG_EVENT;
+            pluginStats.increment(statsApi, PluginStats.CALLS);
 
             // check number or args
             int nargs = luaState.getTop();
-            if (nargs != 2) {
-                logMsg(ERROR_MSG, "Expected 2 arguments, got " + nargs);
+            if (nargs < 1 || nargs > 2) {
+                logMsg(ERROR_MSG, "Expected 1 or 2 arguments, got " + nargs);
                 return 0;
             }
 
-            // Get the listener (required)
-            if (CoronaLua.isListener(luaState, 1, PROVIDER_NAME)) {
-                coronaListener = CoronaLua.newRef(luaState, 1);
-            } else {
-                logMsg(ERROR_MSG, "Listener expected, got: " + luaState.typeName(1));
+            PendingEvent event = readStandardEvent(luaState, 1, 2, "eventName", "eventValue");
+            if (event == null) {
                 return 0;
             }
 
-            // check for options table (required)
-            if (luaState.type(2) == LuaType.TABLE) {
-                // traverse and validate all the options
-                for (luaState.pushNil(); luaState.next(2); luaState.pop(1)) {
-                    String key = luaState.toString(-2);
-
-                    if (key.equals("apiKey")) {
-                        if (luaState.type(-1) == LuaType.STRING) {
-                            apiKey = luaState.toString(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.apiKey (string) expected, got " + luaState.typeName(-1));
-                            return 0;
-                        }
-                    } else if (key.equals("registerAppForAdNetworkAttribution")) {
-
-                    } else if (key.equals("hasUserConsent")) {
-                        if (luaState.type(-1) == LuaType.BOOLEAN) {
-                            hasUserConsent = luaState.toBoolean(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.hasUserConsent expected (boolean). Got " + luaState.typeName(-1));
-                            return 0;
-                        }
-                    } else {
-                        logMsg(ERROR_MSG, "Invalid option '" + key + "'");
-                        return 0;
-                    }
-                }
-            } else {
-                logMsg(ERROR_MSG, "options table expected, got " + luaState.typeName(2));
+            // rate limited or sampled out
+            if (!eventRateLimiter.allow(event.name)) {
+                event.recycle();
                 return 0;
             }
+            recordAcceptedEvent(event);
 
-            // check required params
-            if (apiKey == null) {
-                logMsg(ERROR_MSG, "options.apiKey is required");
+            // summed up with other occurrences, sent when the window ends
+            if (aggregateEvent(event)) {
                 return 0;
             }
 
-            // declare final variables for inner loop
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final String fApiKey = apiKey;
-            final boolean fHasUserConsent = hasUserConsent;
-
-            if (coronaActivity != null) {
-                Runnable runnableActivity = new Runnable() {
-                    public void run() {
-                        // initialize the SDK
-                        TenjinSDK instance = TenjinSDK.getInstance(coronaActivity, fApiKey);
-
-                        if (fHasUserConsent) {
-                            instance.optIn();
-                        } else {
-                            instance.optOut();
-                        }
-                        //Remove Device IDS (i.e IMEI) for Google Play Warning
-                        String[] optOutParams = {"imei"};
-                        instance.optOutParams(optOutParams);
-
-                        instance.connect();
-
-                        // store data in object dictionary for later use
-                        tenjinObjects.put(DEVELOPER_API_KEY, fApiKey);
-                        tenjinObjects.put(TENJIN_INSTANCE, instance);
-
-                        // send Corona Lua event
-                        Map<String, String> coronaEvent = new HashMap<>();
-                        coronaEvent.put(EVENT_PHASE_KEY, PHASE_INIT);
-                        dispatchLuaEvent(coronaEvent, coronaListener);
-
-                        // log plugin version to device
-                        Log.i(CORONA_TAG, PLUGIN_NAME + ": " + PLUGIN_VERSION + " (SDK: " + PLUGIN_SDK_VERSION + ")");
-
-                        // send beacon data to our server (placement set to null. placements not used)
-                        // wait for 2 seconds for CoronaBeacon.getDeviceInfo() to initialize
-                        Handler handler = new Handler();
-                        handler.postDelayed(new Runnable() {
-                            @Override
-                            public void run() {
-                                sendToBeacon(CoronaBeacon.IMPRESSION, null);
-                            }
-                        }, 2000);
-                    }
-                };
-
-                coronaActivity.runOnUiThread(runnableActivity);
-            }
+            journalEvent(event);
+            queueEventInOrder(event);
 
             return 0;
         }
     }
 
-    // [Lua] getDeepLink(listener)
-    private class GetDeepLink implements NamedJavaFunction {
+    // [Lua] registerEvent(eventName)
+    private class RegisterEvent implements NamedJavaFunction {
         /**
          * Gets the name of the Lua function as it would appear in the Lua script.
          *
@@ -486,7 +2054,7 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          */
         @Override
         public String getName() {
-            return "getDeepLink";
+            return "registerEvent";
         }
 
         /**
@@ -499,50 +2067,38 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          * @return Returns the number of values to be returned by the Lua function.
          */
         @Override
-        public int invoke(final LuaState luaState) {
-            functionSignature = "tenjin.getDeepLink(listener)";
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.registerEvent(eventName)";
+            statsApi = -1;
 
             // check number or args
             int nargs = luaState.getTop();
             if (nargs != 1) {
-                logMsg(ERROR_MSG, "Expected 1 arguments, got " + nargs);
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
                 return 0;
             }
 
-            // Get the listener (required)
-            if (CoronaLua.isListener(luaState, 1, PROVIDER_NAME)) {
-                deepLinkListener = CoronaLua.newRef(luaState, 1);
-            } else {
-                logMsg(ERROR_MSG, "Listener expected, got: " + luaState.typeName(1));
+            if (luaState.type(1) != LuaType.STRING) {
+                logMsg(ERROR_MSG, "eventName (string) expected, got " + luaState.typeName(1));
                 return 0;
             }
 
-            // declare final variables for inner loop
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-
-            if (coronaActivity != null) {
-                Runnable runnableActivity = new Runnable() {
-                    public void run() {
-                        TenjinSDK instance = (TenjinSDK) tenjinObjects.get(TENJIN_INSTANCE);
-
-                        instance.getDeeplink(new Callback() {
-                            @Override
-                            public void onSuccess(boolean clickedTenjinLink, boolean isFirstSession, Map<String, String> data) {
-                                dispatchLuaEvent(data, deepLinkListener);
-                            }
-                        });
-                    }
-                };
-
-                coronaActivity.runOnUiThread(runnableActivity);
+            // the same name always gets the same handle
+            String eventName = luaState.toString(1);
+            Integer handle = registeredEventHandles.get(eventName);
+            if (handle == null) {
+                registeredEventNames.add(eventName);
+                handle = registeredEventNames.size();
+                registeredEventHandles.put(eventName, handle);
             }
 
-            return 0;
+            luaState.pushInteger(handle);
+            return 1;
         }
     }
 
-    // [Lua] logEvent(event [, value])
-    private class LogEvent implements NamedJavaFunction {
+    // [Lua] logEvents(events)
+    private class LogEvents implements NamedJavaFunction {
         /**
          * Gets the name of the Lua function as it would appear in the Lua script.
          *
@@ -550,7 +2106,7 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          */
         @Override
         public String getName() {
-            return "logEvent";
+            return "logEvents";
         }
 
         /**
@@ -564,73 +2120,73 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
          */
         @Override
         public int invoke(LuaState luaState) {
-            functionSignature = "tenjin.logEvent(event [, value])";
+            functionSignature = "tenjin.logEvents(events)";
+            statsApi = PluginStats.API_LOG_EVENTS;
+            pluginStats.increment(statsApi, PluginStats.CALLS);
 
-            if (!isSDKInitialized()) {
+            // check number or args
+            int nargs = luaState.getTop();
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
                 return 0;
             }
 
-            String eventName = null;
-            double eventValue = NO_DATA;
-
-            // check number or args
-            int nargs = luaState.getTop();
-            if (nargs < 1 || nargs > 2) {
-                logMsg(ERROR_MSG, "Expected 1 or 2 arguments, got " + nargs);
+            // check for events array (required)
+            if (luaState.type(1) != LuaType.TABLE) {
+                logMsg(ERROR_MSG, "events table expected, got " + luaState.typeName(1));
                 return 0;
             }
 
-            // get event name
-            if (luaState.type(1) == LuaType.STRING) {
-                eventName = luaState.toString(1);
-            } else {
-                logMsg(ERROR_MSG, "eventName (string) expected, got " + luaState.typeName(1));
+            int count = luaState.length(1);
+            if (count == 0) {
                 return 0;
             }
 
-            // get event value
-            if (!luaState.isNoneOrNil(2)) {
-                if (luaState.type(2) == LuaType.NUMBER) {
-                    eventValue = luaState.toNumber(2);
-                } else {
-                    logMsg(ERROR_MSG, "eventValue (number) expected, got " + luaState.typeName(2));
+            // validate all events first, nothing is logged if one of them is invalid
+            List<PendingEvent> events = new ArrayList<>(count);
+            for (int i = 1; i <= count; i++) {
+                luaState.rawGet(1, i);
+                if (luaState.type(-1) != LuaType.TABLE) {
+                    logMsg(ERROR_MSG, "events[" + i + "] (table) expected, got " + luaState.typeName(-1));
+                    luaState.pop(1);
+                    recycleEvents(events);
                     return 0;
                 }
-            }
 
-            // declare final variables for inner loop
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final String fEventName = eventName;
-            final double fEventValue = eventValue;
+                luaState.getField(-1, "name");
+                luaState.getField(-2, "value");
+                PendingEvent event = readStandardEvent(luaState, -2, -1, "events[" + i + "].name", "events[" + i + "].value");
+                luaState.pop(3);
 
-            if (coronaActivity != null) {
-                Runnable runnableActivity = new Runnable() {
-                    public void run() {
-                        // get the tenjin instance
-                        TenjinSDK instance = (TenjinSDK) tenjinObjects.get(TENJIN_INSTANCE);
-
-                        // send event to Tenjin
-                        if (fEventValue != NO_DATA) {
-                            // verify if truncating value
-                            String value = Integer.toString((int) fEventValue);
-                            if (Double.parseDouble(value) != fEventValue) {
-                                logMsg(WARNING_MSG, "event value has been truncated from " + fEventValue + " to " + value);
-                            }
-                            instance.eventWithNameAndValue(fEventName, value);
-                        } else {
-                            instance.eventWithName(fEventName);
-                        }
+                if (event == null) {
+                    recycleEvents(events);
+                    return 0;
+                }
+                events.add(event);
+            }
 
-                        // send Corona Lua event
-                        Map<String, String> coronaEvent = new HashMap<>();
-                        coronaEvent.put(EVENT_PHASE_KEY, PHASE_RECORDED);
-                        coronaEvent.put(EVENT_TYPE_KEY, TYPE_STANDARD);
-                        dispatchLuaEvent(coronaEvent, coronaListener);
-                    }
-                };
+            // drop rate limited or sampled out events, aggregated events are sent when their window ends
+            List<PendingEvent> allowed = new ArrayList<>(events.size());
+            for (PendingEvent event : events) {
+                if (!eventRateLimiter.allow(event.name)) {
+                    event.recycle();
+                    continue;
+                }
+
+                recordAcceptedEvent(event);
+                if (!aggregateEvent(event)) {
+                    allowed.add(event);
+                }
+            }
+            events = allowed;
+            if (events.isEmpty()) {
+                return 0;
+            }
 
-                coronaActivity.runOnUiThread(runnableActivity);
+            for (PendingEvent event : events) {
+                journalEvent(event);
             }
+            queueEventInOrder(PendingEvent.bulk(events));
 
             return 0;
         }
@@ -660,10 +2216,8 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         @Override
         public int invoke(LuaState luaState) {
             functionSignature = "tenjin.logPurchase(productData [, receiptData])";
-
-            if (!isSDKInitialized()) {
-                return 0;
-            }
+            statsApi = PluginStats.API_LOG_PURCHASE;
+            pluginStats.increment(statsApi, PluginStats.CALLS);
 
             String productId = null;
             String currencyCode = null;
@@ -793,42 +2347,97 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
                 }
 
                 if (signature == null) {
-                    logMsg(ERROR_MSG, "receiptData.transactionId required ");
+                    logMsg(ERROR_MSG, "receiptData.signature required");
                     return 0;
                 }
             }
-            // declare final variables for inner loop
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final String fProductId = productId;
-            final String fSignature = signature;
-            final String fCurrencyCode = currencyCode.toUpperCase();
-            final String fReceipt = receipt;
-            final double fUnitPrice = unitPrice;
-            final int fQuantity = (int) quantity;
 
-            if (coronaActivity != null) {
-                Runnable runnableActivity = new Runnable() {
+            final PendingEvent event = PendingEvent.purchase(productId, currencyCode.toUpperCase(), (int) quantity, unitPrice, receipt, signature);
+
+            // receipts are checked on the worker thread, the call returns right away
+            // (journaled first, events logged meanwhile are queued behind the check)
+            if (receipt != null) {
+                journalEvent(event);
+                eventsOnWorker.incrementAndGet();
+                sdkExecutor.executeInBackground(new Runnable() {
                     public void run() {
-                        TenjinSDK instance = (TenjinSDK) tenjinObjects.get(TENJIN_INSTANCE);
+                        processReceipt(event);
+                        eventsOnWorker.decrementAndGet();
+                    }
+                });
+                return 0;
+            }
 
-                        // send event to Tenjin
-                        if (fSignature != null) {
-                            instance.transaction(fProductId, fCurrencyCode, fQuantity, fUnitPrice, fReceipt, fSignature);
-                        } else {
-                            instance.transaction(fProductId, fCurrencyCode, fQuantity, fUnitPrice);
-                        }
+            recordAcceptedEvent(event);
+            journalEvent(event);
+            queueEventInOrder(event);
 
-                        // send Corona Lua event
-                        Map<String, String> coronaEvent = new HashMap<>();
-                        coronaEvent.put(EVENT_PHASE_KEY, PHASE_RECORDED);
-                        coronaEvent.put(EVENT_TYPE_KEY, TYPE_PURCHASE);
-                        dispatchLuaEvent(coronaEvent, coronaListener);
-                    }
-                };
+            return 0;
+        }
+    }
+
+    // [Lua] updateConversionValue(conversionValue)
+    private class UpdateConversionValue implements NamedJavaFunction {
+        /**
+         * Gets the name of the Lua function as it would appear in the Lua script.
+         *
+         * @return Returns the name of the custom Lua function.
+         */
+        @Override
+        public String getName() {
+            return "updateConversionValue";
+        }
+
+        /**
+         * This method is called when the Lua function is called.
+         * <p>
+         * Warning! This method is not called on the main UI thread.
+         *
+         * @param luaState Reference to the Lua state.
+         *                 Needed to retrieve the Lua function's parameters and to return values back to Lua.
+         * @return Returns the number of values to be returned by the Lua function.
+         */
+        @Override
+        public int invoke(LuaState luaState) {
+            functionSignature = "tenjin.updateConversionValue(conversionValue)";
+            statsApi = -1;
+
+            // check number or args
+            int nargs = luaState.getTop();
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
+                return 0;
+            }
+
+            double value = (luaState.type(1) == LuaType.NUMBER) ? luaState.toNumber(1) : -1;
+            if ((value < 0) || (value > ConversionValueEngine.MAX_VALUE) || (value != Math.floor(value))) {
+                logMsg(ERROR_MSG, "conversionValue (integer 0-" + ConversionValueEngine.MAX_VALUE + ") expected, got " + luaState.typeName(1));
+                return 0;
+            }
 
-                coronaActivity.runOnUiThread(runnableActivity);
+            // the value only goes up, rules can raise it further from here
+            ConversionValueEngine engine = conversionValueEngine;
+            if (engine != null) {
+                if (engine.setValue((int) value)) {
+                    sdkExecutor.execute(conversionValueTask);
+                } else if (value < engine.getValue()) {
+                    logMsg(WARNING_MSG, "conversionValue " + (int) value + " ignored, the conversion value is already " + engine.getValue());
+                }
+                return 0;
             }
 
+            final int fValue = (int) value;
+            sdkExecutor.execute(new Runnable() {
+                public void run() {
+                    TenjinSDK instance = pluginState.get().instance;
+                    if (instance != null) {
+                        instance.updateConversionValue(fValue);
+                    } else {
+                        Log.i(CORONA_TAG, WARNING_MSG + "tenjin.updateConversionValue(conversionValue), tenjin.init() must complete before the conversion value can be sent");
+                    }
+                }
+            });
+
             return 0;
         }
     }
@@ -0,0 +1,113 @@
+//
+// PendingEvent.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A logEvent() or logPurchase() call that has been validated on the Lua thread
+ * and is waiting to be handed to the Tenjin SDK.
+ * <p>
+ * Records are pooled, call {@link #recycle()} once the SDK has been given the event.
+ */
+class PendingEvent {
+    private static final int POOL_SIZE = 64;
+    private static final ArrayBlockingQueue<PendingEvent> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // event kinds
+    static final int KIND_STANDARD = 0;
+    static final int KIND_PURCHASE = 1;
+    static final int KIND_BULK = 2;
+
+    int kind;
+
+    // standard event
+    String name;
+    double value;
+
+    // purchase event
+    String productId;
+    String currencyCode;
+    int quantity;
+    double unitPrice;
+    String receipt;
+    String signature;
+    long purchaseKey;   // reserved in the purchase deduplicator (0 if none)
+
+    // bulk event (logEvents)
+    List<PendingEvent> events;
+
+    // System.nanoTime() of the Lua call
+    long createdAt;
+
+    // id of the event's record in the event journal (-1 if not journaled)
+    int journalId = -1;
+
+    private PendingEvent() {
+    }
+
+    private static PendingEvent obtain() {
+        PendingEvent event = pool.poll();
+        if (event == null) {
+            event = new PendingEvent();
+        }
+        event.createdAt = System.nanoTime();
+        return event;
+    }
+
+    static PendingEvent standard(String name, double value) {
+        PendingEvent event = obtain();
+        event.kind = KIND_STANDARD;
+        event.name = name;
+        event.value = value;
+        return event;
+    }
+
+    static PendingEvent purchase(String productId, String currencyCode, int quantity, double unitPrice, String receipt, String signature) {
+        PendingEvent event = obtain();
+        event.kind = KIND_PURCHASE;
+        event.productId = productId;
+        event.currencyCode = currencyCode;
+        event.quantity = quantity;
+        event.unitPrice = unitPrice;
+        event.receipt = receipt;
+        event.signature = signature;
+        return event;
+    }
+
+    static PendingEvent bulk(List<PendingEvent> events) {
+        PendingEvent event = obtain();
+        event.kind = KIND_BULK;
+        event.events = events;
+        return event;
+    }
+
+    // Tenjin only takes integer event values
+    int intValue() {
+        return (int) value;
+    }
+
+    // true if intValue() loses the fractional part (or range) of the value
+    boolean isValueTruncated() {
+        return (int) value != value;
+    }
+
+    // return the record to the pool (must not be used afterwards)
+    void recycle() {
+        name = null;
+        productId = null;
+        currencyCode = null;
+        receipt = null;
+        signature = null;
+        events = null;
+        journalId = -1;
+        purchaseKey = 0;
+        pool.offer(this);
+    }
+}
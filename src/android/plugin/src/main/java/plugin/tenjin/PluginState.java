@@ -0,0 +1,65 @@
+//
+// PluginState.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import com.ansca.corona.CoronaLua;
+import com.ansca.corona.CoronaRuntimeTaskDispatcher;
+
+import com.tenjin.android.TenjinSDK;
+
+/**
+ * Immutable snapshot of the plugin state shared by the Lua, UI and SDK threads.
+ * <p>
+ * The current snapshot is published through an atomic reference and replaced as a whole by the
+ * lifecycle transitions uninitialized -> initializing -> ready -> exiting -> uninitialized. Readers
+ * load it once and work with that snapshot, so a transition happening meanwhile can't leave them
+ * with a half-updated view (e.g. a listener without a dispatcher).
+ */
+final class PluginState {
+    // phases
+    static final int UNINITIALIZED = 0;    // tenjin.init() not called
+    static final int INITIALIZING = 1;     // tenjin.init() called, SDK instance not available yet
+    static final int READY = 2;            // SDK instance available
+    static final int EXITING = 3;          // runtime is being terminated
+
+    static final PluginState INITIAL = new PluginState(UNINITIALIZED, CoronaLua.REFNIL, null, null, null);
+
+    final int phase;
+    final int listener;                               // init() listener ref, REFNIL before init
+    final CoronaRuntimeTaskDispatcher dispatcher;     // null before the runtime is known
+    final String apiKey;
+    final TenjinSDK instance;
+
+    private PluginState(int phase, int listener, CoronaRuntimeTaskDispatcher dispatcher, String apiKey, TenjinSDK instance) {
+        this.phase = phase;
+        this.listener = listener;
+        this.dispatcher = dispatcher;
+        this.apiKey = apiKey;
+        this.instance = instance;
+    }
+
+    boolean isInitialized() {
+        return (phase == INITIALIZING) || (phase == READY);
+    }
+
+    PluginState withDispatcher(CoronaRuntimeTaskDispatcher dispatcher) {
+        return new PluginState(phase, listener, dispatcher, apiKey, instance);
+    }
+
+    PluginState initializing(int listener, String apiKey) {
+        return new PluginState(INITIALIZING, listener, dispatcher, apiKey, null);
+    }
+
+    PluginState ready(TenjinSDK instance) {
+        return new PluginState(READY, listener, dispatcher, apiKey, instance);
+    }
+
+    PluginState exiting() {
+        return new PluginState(EXITING, listener, dispatcher, apiKey, instance);
+    }
+}
@@ -0,0 +1,144 @@
+//
+// PluginStats.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-API counters and latency histograms, recorded lock-free from any thread.
+ */
+class PluginStats {
+    // APIs
+    static final int API_INIT = 0;
+    static final int API_LOG_EVENT = 1;
+    static final int API_LOG_PURCHASE = 2;
+    static final int API_GET_DEEP_LINK = 3;
+    static final int API_LOG_EVENTS = 4;
+    static final String[] API_NAMES = {"init", "logEvent", "logPurchase", "getDeepLink", "logEvents"};
+
+    // counters (per API)
+    static final int CALLS = 0;
+    static final int VALIDATION_FAILURES = 1;
+    static final int DROPPED_NO_ACTIVITY = 2;
+    static final int DROPPED_NOT_INITIALIZED = 3;
+    static final String[] COUNTER_NAMES = {"calls", "validationFailures", "droppedNoActivity", "droppedNotInitialized"};
+
+    private final AtomicLongArray counters = new AtomicLongArray(API_NAMES.length * COUNTER_NAMES.length);
+
+    // Lua events that could not be delivered (no activity or runtime gone)
+    final AtomicLong callbacksDropped = new AtomicLong();
+
+    // purchases rejected as already logged
+    final AtomicLong duplicatePurchases = new AtomicLong();
+
+    // Lua call -> SDK handoff
+    final LatencyHistogram handoffLatency = new LatencyHistogram();
+
+    // SDK handoff -> Lua callback
+    final LatencyHistogram callbackLatency = new LatencyHistogram();
+
+    void increment(int api, int counter) {
+        counters.incrementAndGet(api * COUNTER_NAMES.length + counter);
+    }
+
+    long get(int api, int counter) {
+        return counters.get(api * COUNTER_NAMES.length + counter);
+    }
+
+    // flat snapshot, keys like "logEvent_calls" or "handoffLatency_p50"
+    Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+
+        for (int api = 0; api < API_NAMES.length; api++) {
+            for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+                map.put(API_NAMES[api] + "_" + COUNTER_NAMES[counter], Long.toString(get(api, counter)));
+            }
+        }
+        map.put("callbacksDropped", Long.toString(callbacksDropped.get()));
+        map.put("duplicatePurchases", Long.toString(duplicatePurchases.get()));
+        handoffLatency.addTo(map, "handoffLatency");
+        callbackLatency.addTo(map, "callbackLatency");
+
+        return map;
+    }
+
+    /**
+     * Fixed-bucket latency histogram in milliseconds.
+     */
+    static class LatencyHistogram {
+        // bucket upper bounds (ms), the last bucket takes everything above
+        static final long[] BUCKET_LIMITS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        // record the time elapsed since startNanos (System.nanoTime()), ignored if startNanos is 0
+        void recordSince(long startNanos) {
+            if (startNanos == 0) {
+                return;
+            }
+
+            long nanos = System.nanoTime() - startNanos;
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+            int bucket = 0;
+            while ((bucket < BUCKET_LIMITS.length) && (millis > BUCKET_LIMITS[bucket])) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getBucket(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        double getMeanMillis() {
+            long n = count.get();
+            return (n > 0) ? (totalNanos.get() / 1e6) / n : 0;
+        }
+
+        // upper bound (ms) of the bucket holding the given percentile, -1 if above the last limit or no data
+        long getPercentileMillis(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return -1;
+            }
+
+            long target = (long) Math.ceil(n * percentile);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_LIMITS.length; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= target) {
+                    return BUCKET_LIMITS[bucket];
+                }
+            }
+
+            return -1;
+        }
+
+        void addTo(Map<String, String> map, String prefix) {
+            map.put(prefix + "_count", Long.toString(getCount()));
+            map.put(prefix + "_mean", Double.toString(getMeanMillis()));
+            map.put(prefix + "_p50", Long.toString(getPercentileMillis(0.50)));
+            map.put(prefix + "_p90", Long.toString(getPercentileMillis(0.90)));
+            map.put(prefix + "_p99", Long.toString(getPercentileMillis(0.99)));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+//
+// PurchaseDeduplicator.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the purchases already logged so store re-deliveries (restores, reconnects) are not
+ * reported twice.
+ * <p>
+ * Purchases are keyed on a 64-bit hash of their receipt and signature. The most recent keys are kept
+ * in an LRU map, mirrored in a memory-mapped ring so they survive restarts. The optional Bloom filter,
+ * stored in the same file, remembers every key ever recorded at a small false positive rate
+ * (about 1 in 10000 after 1000 purchases).
+ * <p>
+ * A purchase is reserved before it is scheduled and only recorded once the SDK has it, so a purchase
+ * that is dropped on the way can be logged again when the store re-delivers it. Reserved purchases
+ * are kept in memory only, which also rejects a re-delivery that arrives while the first one is still
+ * on its way.
+ */
+class PurchaseDeduplicator {
+    private static final String FILE_NAME = "tenjin_purchases.dedupe";
+    private static final int CAPACITY = 256;
+    private static final int BLOOM_BITS = 64 * 1024;
+    private static final int BLOOM_HASHES = 3;
+
+    // file layout: [write index][CAPACITY keys][BLOOM_BITS / 8 bytes]
+    private static final int RING_OFFSET = 4;
+    private static final int BLOOM_OFFSET = RING_OFFSET + CAPACITY * 8;
+    private static final int FILE_SIZE = BLOOM_OFFSET + BLOOM_BITS / 8;
+
+    private final MappedByteBuffer buffer;
+    private final boolean useBloomFilter;
+    private int writeIndex;
+
+    private final Set<Long> reserved = new HashSet<>();
+
+    private final Map<Long, Boolean> recent = new LinkedHashMap<Long, Boolean>(CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private PurchaseDeduplicator(MappedByteBuffer buffer, boolean useBloomFilter) {
+        this.buffer = buffer;
+        this.useBloomFilter = useBloomFilter;
+
+        // reload the ring, oldest key first
+        writeIndex = Math.max(0, buffer.getInt(0)) % CAPACITY;
+        for (int i = 0; i < CAPACITY; i++) {
+            long key = buffer.getLong(RING_OFFSET + ((writeIndex + i) % CAPACITY) * 8);
+            if (key != 0) {
+                recent.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+    // map the dedupe file, returns null if it can't be opened
+    static PurchaseDeduplicator open(File directory, boolean useBloomFilter) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+            try {
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                return new PurchaseDeduplicator(buffer, useBloomFilter);
+            } finally {
+                file.close(); // the mapping stays valid after the channel is closed
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    // 64-bit FNV-1a hash of the purchase (never 0, which marks an empty ring slot)
+    static long keyOf(String receipt, String signature) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, receipt);
+        hash = hash(hash, "\n");
+        hash = hash(hash, signature);
+        return (hash != 0) ? hash : 1;
+    }
+
+    private static long hash(long hash, String text) {
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    // returns false if the purchase was already recorded or is reserved, reserves it otherwise (before scheduling it)
+    synchronized boolean reserve(long key) {
+        if (recent.containsKey(key) || (useBloomFilter && bloomContains(key))) {
+            recent.put(key, Boolean.TRUE);
+            return false;
+        }
+
+        return reserved.add(key);
+    }
+
+    // the purchase was dropped before reaching the SDK, a re-delivery may log it
+    synchronized void release(long key) {
+        reserved.remove(key);
+    }
+
+    // the SDK has the purchase, re-deliveries are rejected from now on (SDK thread)
+    synchronized void record(long key) {
+        reserved.remove(key);
+        if (recent.containsKey(key)) {
+            return;
+        }
+
+        recent.put(key, Boolean.TRUE);
+        buffer.putLong(RING_OFFSET + writeIndex * 8, key);
+        writeIndex = (writeIndex + 1) % CAPACITY;
+        buffer.putInt(0, writeIndex);
+
+        if (useBloomFilter) {
+            bloomAdd(key);
+        }
+    }
+
+    private boolean bloomContains(long key) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(key, i);
+            if ((buffer.get(BLOOM_OFFSET + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long key) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(key, i);
+            int offset = BLOOM_OFFSET + (bit >>> 3);
+            buffer.put(offset, (byte) (buffer.get(offset) | (1 << (bit & 7))));
+        }
+    }
+
+    // double hashing: bit i = h1 + i * h2
+    private static int bloomBit(long key, int i) {
+        int h1 = (int) key;
+        int h2 = (int) (key >>> 32);
+        return ((h1 + i * h2) & 0x7fffffff) % BLOOM_BITS;
+    }
+}
@@ -0,0 +1,57 @@
+//
+// PurchaseReceipt.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The fields of a Google Play purchase receipt (INAPP_PURCHASE_DATA) needed to validate a logPurchase() call.
+ * <p>
+ * Parsing runs on the SDK worker thread, never on the Lua thread.
+ */
+class PurchaseReceipt {
+    // receipts longer than this (in characters) are sent without being parsed
+    static final int MAX_LENGTH = 64 * 1024;
+
+    // error code (event.errorCode of the listener event)
+    static final String ERROR_PRODUCT_MISMATCH = "productMismatch";
+
+    final String orderId;       // null for test and promo code purchases
+    final String productId;
+    final long purchaseTime;
+    final String purchaseToken;
+
+    private PurchaseReceipt(String orderId, String productId, long purchaseTime, String purchaseToken) {
+        this.orderId = orderId;
+        this.productId = productId;
+        this.purchaseTime = purchaseTime;
+        this.purchaseToken = purchaseToken;
+    }
+
+    // returns null if the receipt is not a Google Play purchase (productId and purchaseTime are required)
+    static PurchaseReceipt parse(String receipt) {
+        try {
+            JSONObject json = new JSONObject(receipt);
+            String productId = json.optString("productId", null);
+            long purchaseTime = json.optLong("purchaseTime", 0);
+            if ((productId == null) || (purchaseTime <= 0)) {
+                return null;
+            }
+
+            return new PurchaseReceipt(json.optString("orderId", null), productId, purchaseTime, json.optString("purchaseToken", null));
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    // the receipt field identifying the purchase, for duplicate detection
+    String getPurchaseKey() {
+        return (orderId != null) ? orderId : purchaseToken;
+    }
+}
@@ -0,0 +1,82 @@
+//
+// ResumeScheduler.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a runtime resume should reconnect the Tenjin SDK.
+ * <p>
+ * Permission dialogs, ad overlays and share sheets cause bursts of suspend/resume. A resume that
+ * arrives while a connect is still pending, or within the minimum interval since the last connect
+ * (the SDK session is still current), is suppressed and counted.
+ */
+class ResumeScheduler {
+    private final AtomicBoolean connectPending = new AtomicBoolean();
+    private volatile long lastConnectAt = 0;
+    private volatile boolean hasConnected = false;
+    private volatile long minInterval = 0;
+
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger suppressed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    // minimum time (ms) between two connects (init option "resumeConnectInterval")
+    void setMinInterval(long minInterval) {
+        this.minInterval = Math.max(0, minInterval);
+    }
+
+    // returns true if the caller must connect, and then call connected() once done
+    boolean shouldConnect() {
+        if (!connectPending.compareAndSet(false, true)) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+
+        if (hasConnected && (SystemClock.elapsedRealtime() - lastConnectAt < minInterval)) {
+            connectPending.set(false);
+            suppressed.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    // a connect has been made (on resume or by init)
+    void connected() {
+        lastConnectAt = SystemClock.elapsedRealtime();
+        hasConnected = true;
+        connectPending.set(false);
+        connects.incrementAndGet();
+    }
+
+    // a connect returned by shouldConnect() could not be made after all
+    void cancel() {
+        connectPending.set(false);
+    }
+
+    // resume seen before init, nothing to connect
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    int getConnectCount() {
+        return connects.get();
+    }
+
+    int getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    int getSkippedCount() {
+        return skipped.get();
+    }
+}
@@ -0,0 +1,77 @@
+//
+// SdkExecutor.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Tenjin SDK work either on the UI thread (default) or on one dedicated worker thread.
+ * <p>
+ * Both modes execute tasks one at a time in submission order.
+ * Housekeeping tasks always go to the worker thread.
+ */
+class SdkExecutor {
+    // execution modes (init option "executionMode")
+    static final String MODE_UI = "ui";
+    static final String MODE_BACKGROUND = "background";
+
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private ScheduledExecutorService worker = null;
+    private volatile boolean background = false;
+
+    void setMode(String mode) {
+        background = MODE_BACKGROUND.equals(mode);
+    }
+
+    boolean isBackground() {
+        return background;
+    }
+
+    void execute(Runnable task) {
+        if (background) {
+            getWorker().execute(task);
+        } else {
+            uiHandler.post(task);
+        }
+    }
+
+    void schedule(Runnable task, long delayMillis) {
+        if (background) {
+            getWorker().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            uiHandler.postDelayed(task, delayMillis);
+        }
+    }
+
+    // housekeeping that must stay off the UI thread, regardless of the execution mode
+    void executeInBackground(Runnable task) {
+        getWorker().execute(task);
+    }
+
+    // the worker is created on first use and lives for the rest of the process
+    private synchronized ScheduledExecutorService getWorker() {
+        if (worker == null) {
+            worker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "TenjinSDK");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return worker;
+    }
+}
@@ -0,0 +1,92 @@
+//
+// SessionTracker.java
+// Tenjin Plugin
+//
+// Copyright (c) 2016 CoronaLabs inc. All rights reserved.
+//
+
+package plugin.tenjin;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Foreground sessions, from runtime start/resume to suspend, timed with the monotonic clock.
+ * <p>
+ * Events and purchases logged during the current session are counted lock-free from any thread.
+ */
+class SessionTracker {
+    private long sessionStart = 0;   // SystemClock.elapsedRealtime(), 0 when no session is active
+    private int sessionCount = 0;
+    private long totalForegroundTime = 0;
+
+    private final AtomicInteger events = new AtomicInteger();
+    private final AtomicInteger purchases = new AtomicInteger();
+
+    /**
+     * Figures of a session that has ended.
+     */
+    static class Summary {
+        final int session;       // 1 for the first session of the process
+        final long duration;     // ms
+        final int events;
+        final int purchases;
+
+        Summary(int session, long duration, int events, int purchases) {
+            this.session = session;
+            this.duration = duration;
+            this.events = events;
+            this.purchases = purchases;
+        }
+    }
+
+    // runtime started or resumed, ignored if a session is already active
+    synchronized void start() {
+        if (sessionStart != 0) {
+            return;
+        }
+
+        sessionStart = SystemClock.elapsedRealtime();
+        sessionCount++;
+        events.set(0);
+        purchases.set(0);
+    }
+
+    // runtime suspended or exiting, returns null if no session was active
+    synchronized Summary end() {
+        if (sessionStart == 0) {
+            return null;
+        }
+
+        long duration = SystemClock.elapsedRealtime() - sessionStart;
+        sessionStart = 0;
+        totalForegroundTime += duration;
+        return new Summary(sessionCount, duration, events.get(), purchases.get());
+    }
+
+    void countEvent(int count) {
+        events.addAndGet(count);
+    }
+
+    void countPurchase() {
+        purchases.incrementAndGet();
+    }
+
+    synchronized int getSessionCount() {
+        return sessionCount;
+    }
+
+    // foreground time (ms) of all sessions, including the current one
+    synchronized long getForegroundTime() {
+        return totalForegroundTime + ((sessionStart != 0) ? SystemClock.elapsedRealtime() - sessionStart : 0);
+    }
+
+    int getEventCount() {
+        return events.get();
+    }
+
+    int getPurchaseCount() {
+        return purchases.get();
+    }
+}